@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+
+import org.apache.camel.Message;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.mime.Attachment;
+import org.springframework.ws.mime.MimeMessage;
+
+/**
+ * Maps attachments between Spring-WS MIME messages (SwA and MTOM/XOP) and
+ * Camel messages. Attachments of a message that outlives the exchange, such
+ * as a consumer request, are read from the webservice message on demand.
+ * Attachments of a message that is discarded before the exchange completes,
+ * such as a producer response, are copied first. Outbound data handlers are
+ * handed to the webservice message as-is and streamed when it is written.
+ * 
+ * MTOM/XOP messages aren't reassembled: their xop:Include elements are left
+ * in the payload and the parts they refer to are exposed as attachments,
+ * keyed by content id like any other attachment. Attachments without a
+ * content id are given a generated one.
+ * 
+ * @author Richard Kettelerij
+ */
+final class AttachmentMapper {
+
+    private AttachmentMapper() {
+    }
+
+    /**
+     * Adds the attachments of the given webservice message to the given map,
+     * keyed by content id. Their content is read from the webservice message
+     * when the data handlers are read.
+     */
+    public static void extractAttachments(WebServiceMessage webServiceMessage, Map<String, DataHandler> attachments) {
+        if (!(webServiceMessage instanceof MimeMessage)) {
+            return;
+        }
+        Iterator<?> iterator = ((MimeMessage) webServiceMessage).getAttachments();
+        while (iterator.hasNext()) {
+            Attachment attachment = (Attachment) iterator.next();
+            String contentId = getContentId(attachment);
+            attachments.put(contentId, new DataHandler(new AttachmentDataSource(attachment, contentId)));
+        }
+    }
+
+    /**
+     * Adds copies of the attachments of the given webservice message to the
+     * given map, keyed by content id, so they remain readable after the
+     * message is discarded. The copies are added to <code>copies</code>, for
+     * the caller to release once they're no longer needed.
+     * 
+     * @param payloadSpooler
+     *            spooler to copy the attachments with, attachments above its
+     *            threshold are spilled to disk rather than held in memory
+     */
+    public static void copyAttachments(WebServiceMessage webServiceMessage, Map<String, DataHandler> attachments,
+                                       PayloadSpooler payloadSpooler, List<SpooledPayloadSource> copies) throws IOException {
+        if (!(webServiceMessage instanceof MimeMessage)) {
+            return;
+        }
+        Iterator<?> iterator = ((MimeMessage) webServiceMessage).getAttachments();
+        while (iterator.hasNext()) {
+            Attachment attachment = (Attachment) iterator.next();
+            SpooledPayloadSource copy = payloadSpooler.spool(attachment.getInputStream());
+            copies.add(copy);
+            String contentId = getContentId(attachment);
+            attachments.put(contentId, new DataHandler(new CopiedDataSource(copy, attachment.getContentType(), contentId)));
+        }
+    }
+
+    private static String getContentId(Attachment attachment) {
+        String contentId = attachment.getContentId();
+        return contentId != null ? contentId : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Adds the attachments of the given Camel message to the given webservice
+     * message
+     * 
+     * @param mtom
+     *            whether to package the message as MTOM/XOP rather than SwA,
+     *            when the message factory supports it. Only the packaging is
+     *            affected, the payload is left as-is.
+     */
+    public static void addAttachments(Message message, WebServiceMessage webServiceMessage, boolean mtom) {
+        if (!(webServiceMessage instanceof MimeMessage) || !message.hasAttachments()) {
+            return;
+        }
+        MimeMessage mimeMessage = (MimeMessage) webServiceMessage;
+        for (Map.Entry<String, DataHandler> attachment : message.getAttachments().entrySet()) {
+            mimeMessage.addAttachment(attachment.getKey(), attachment.getValue());
+        }
+        if (mtom && !mimeMessage.isXopPackage()) {
+            mimeMessage.convertToXopPackage();
+        }
+    }
+
+    /**
+     * Streams the content of a Spring-WS attachment, each call to
+     * {@link #getInputStream()} reads it anew from the webservice message
+     */
+    private static final class AttachmentDataSource implements DataSource {
+        private final Attachment attachment;
+        private final String contentId;
+
+        private AttachmentDataSource(Attachment attachment, String contentId) {
+            this.attachment = attachment;
+            this.contentId = contentId;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return attachment.getInputStream();
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Attachment " + contentId + " is read-only");
+        }
+
+        public String getContentType() {
+            return attachment.getContentType();
+        }
+
+        public String getName() {
+            return contentId;
+        }
+    }
+
+    /**
+     * Streams a copy of an attachment, each call to {@link #getInputStream()}
+     * reads it anew from the copy
+     */
+    private static final class CopiedDataSource implements DataSource {
+        private final SpooledPayloadSource copy;
+        private final String contentType;
+        private final String contentId;
+
+        private CopiedDataSource(SpooledPayloadSource copy, String contentType, String contentId) {
+            this.copy = copy;
+            this.contentType = contentType;
+            this.contentId = contentId;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            return copy.openStream();
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Attachment " + contentId + " is read-only");
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getName() {
+            return contentId;
+        }
+    }
+}
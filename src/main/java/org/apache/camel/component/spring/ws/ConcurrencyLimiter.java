@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests a consumer processes concurrently. Requests
+ * beyond the limit wait in a bounded queue, in arrival order, and are
+ * rejected right away once the queue is full or their wait times out.
+ * 
+ * @author Richard Kettelerij
+ */
+final class ConcurrencyLimiter {
+
+    private final Semaphore permits;
+    private final int maxQueuedRequests;
+    private final long queueTimeout;
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final int maxConcurrentRequests;
+
+    /**
+     * @param maxConcurrentRequests
+     *            number of requests processed concurrently
+     * @param maxQueuedRequests
+     *            number of requests allowed to wait for processing, 0 rejects
+     *            excess requests immediately
+     * @param queueTimeout
+     *            maximum time in milliseconds a request waits, 0 waits
+     *            indefinitely
+     */
+    ConcurrencyLimiter(int maxConcurrentRequests, int maxQueuedRequests, long queueTimeout) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Admits a request, waiting in the queue if necessary. Every admitted
+     * request must be followed by a call to {@link #release()}.
+     * 
+     * @return <code>false</code> if the request is rejected
+     */
+    public boolean acquire() {
+        try {
+            // unlike tryAcquire(), a timed tryAcquire doesn't barge ahead of
+            // the requests already waiting
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        if (!enqueue()) {
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        boolean acquired = false;
+        try {
+            if (queueTimeout > 0) {
+                acquired = permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                permits.acquire();
+                acquired = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queuedRequests.decrementAndGet();
+        }
+        if (!acquired) {
+            rejectedRequests.incrementAndGet();
+        }
+        return acquired;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    private boolean enqueue() {
+        while (true) {
+            int queued = queuedRequests.get();
+            if (queued >= maxQueuedRequests) {
+                return false;
+            }
+            if (queuedRequests.compareAndSet(queued, queued + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public int getInFlightRequests() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
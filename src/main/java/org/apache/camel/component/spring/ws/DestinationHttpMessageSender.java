@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.WebServiceMessageSender;
+
+/**
+ * HTTP message sender for endpoints addressing many destinations, e.g.
+ * through the {@link SpringWebserviceConstants#SPRING_WS_ENDPOINT_URI}
+ * header. Every destination (scheme, host and port) gets its own
+ * {@link PooledHttpMessageSender}, so connections are reused and limited per
+ * destination. As a pool serves a single destination, its total number of
+ * connections equals the maximum number of connections per host, and at most
+ * maxDestinations * maxConnectionsPerHost connections are open overall.
+ * 
+ * The number of destinations is bounded, the pool of the least recently used
+ * destination is retired when a new destination exceeds the bound, and shut
+ * down once its requests in flight have completed. Pools are looked up
+ * without locking, only creating a pool and evicting one are serialized. A
+ * request reserves the pool it looked up, and looks up the destination again
+ * if the pool was evicted and shut down in the meantime.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public class DestinationHttpMessageSender implements WebServiceMessageSender {
+
+    private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<String, Destination>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final int maxDestinations;
+    private final int maxConnectionsPerHost;
+    private final int connectionTimeout;
+    private final int readTimeout;
+    private final boolean keepAlive;
+    private boolean closed;
+
+    /**
+     * @param maxDestinations the maximum number of destinations for which
+     *            connections are pooled
+     * @param maxConnectionsPerHost the maximum number of concurrent
+     *            connections to a single destination, which is also the
+     *            maximum number of connections in its pool
+     */
+    public DestinationHttpMessageSender(int maxDestinations, int maxConnectionsPerHost, int connectionTimeout, int readTimeout, boolean keepAlive) {
+        this.maxDestinations = maxDestinations;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectionTimeout = connectionTimeout;
+        this.readTimeout = readTimeout;
+        this.keepAlive = keepAlive;
+    }
+
+    public WebServiceConnection createConnection(URI uri) throws IOException {
+        while (true) {
+            WebServiceConnection connection = getSender(uri).createReservedConnection(uri);
+            if (connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    public boolean supports(URI uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * @return the pooled sender of the destination of the given URI
+     * @throws IllegalStateException
+     *             if this sender has been shut down
+     */
+    public PooledHttpMessageSender getSender(URI uri) {
+        String key = uri.getScheme().toLowerCase() + "://" + uri.getHost() + ":" + uri.getPort();
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            destination = addDestination(key);
+        }
+        destination.lastUsed = clock.incrementAndGet();
+        return destination.sender;
+    }
+
+    private synchronized Destination addDestination(String key) {
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            if (closed) {
+                throw new IllegalStateException("Message sender has been shut down");
+            }
+            if (destinations.size() >= maxDestinations) {
+                evictLeastRecentlyUsed();
+            }
+            destination = new Destination(new PooledHttpMessageSender(maxConnectionsPerHost, maxConnectionsPerHost, connectionTimeout, readTimeout, keepAlive));
+            destination.lastUsed = clock.incrementAndGet();
+            destinations.put(key, destination);
+        }
+        return destination;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Map.Entry<String, Destination> eldest = null;
+        for (Map.Entry<String, Destination> entry : destinations.entrySet()) {
+            if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null && destinations.remove(eldest.getKey(), eldest.getValue())) {
+            eldest.getValue().sender.retire();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Closes the connections to all destinations, the sender can't be used
+     * afterwards
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        for (Destination destination : destinations.values()) {
+            destination.sender.shutdown();
+        }
+        destinations.clear();
+    }
+
+    /**
+     * Retires the pools of all destinations, which are shut down once their
+     * requests in flight have completed. The sender can't be used for new
+     * destinations afterwards.
+     */
+    public synchronized void retire() {
+        closed = true;
+        for (Destination destination : destinations.values()) {
+            destination.sender.retire();
+        }
+        destinations.clear();
+    }
+
+    /**
+     * @return the number of destinations for which connections are pooled
+     */
+    public int getDestinationCount() {
+        return destinations.size();
+    }
+
+    /**
+     * @return the number of destinations evicted to stay within bounds
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of connections in use to all pooled destinations
+     */
+    public int getConnectionsInUse() {
+        int connectionsInUse = 0;
+        for (Destination destination : destinations.values()) {
+            connectionsInUse += destination.sender.getConnectionsInUse();
+        }
+        return connectionsInUse;
+    }
+
+    /**
+     * The pool of a destination and when it was last used
+     */
+    private static final class Destination {
+        private final PooledHttpMessageSender sender;
+        private volatile long lastUsed;
+
+        private Destination(PooledHttpMessageSender sender) {
+            this.sender = sender;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.RuntimeCamelException;
+
+/**
+ * Remembers the responses to processed messages by message ID, so duplicates
+ * of a message are answered with the stored response instead of being
+ * processed again. A duplicate of a message that's still being processed
+ * waits for its outcome, for at most the given wait timeout.
+ * 
+ * Every processed message is remembered. When there's no response worth
+ * storing, or the store refuses it for its size, an empty marker is stored
+ * instead.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+final class IdempotentReceiver {
+
+    private static final byte[] PROCESSED = new byte[0];
+
+    private final PayloadStore store;
+    private final long waitTimeout;
+    private final ConcurrentMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<String, CountDownLatch>();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * @param waitTimeout
+     *            maximum time in milliseconds a duplicate waits for the
+     *            message being processed
+     */
+    IdempotentReceiver(PayloadStore store, long waitTimeout) {
+        this.store = store;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Starts receiving a message. Waits while a message with the same ID is
+     * being processed.
+     * 
+     * @return the stored response to a duplicate message, an empty array if
+     *         the message was processed without a response worth storing, or
+     *         <code>null</code> if the caller is to process the message and
+     *         call {@link #complete(String, byte[])} or
+     *         {@link #abandon(String)} afterwards
+     * @throws TimeoutException
+     *             if a message with the same ID is still being processed
+     *             after the wait timeout
+     */
+    public byte[] begin(String messageId) throws TimeoutException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + waitTimeout;
+        while (true) {
+            byte[] response = store.get(messageId);
+            if (response != null) {
+                duplicates.incrementAndGet();
+                return response;
+            }
+            CountDownLatch processing = inFlight.putIfAbsent(messageId, latch);
+            if (processing == null) {
+                // the message may have completed between the lookup and
+                // registering the latch
+                response = store.get(messageId);
+                if (response == null) {
+                    return null;
+                }
+                inFlight.remove(messageId, latch);
+                latch.countDown();
+                duplicates.incrementAndGet();
+                return response;
+            }
+            try {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !processing.await(remaining, TimeUnit.MILLISECONDS)) {
+                    throw new TimeoutException("Message " + messageId + " is still being processed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeCamelException("Interrupted while waiting for message " + messageId + " to be processed", e);
+            }
+            // an abandoned message is processed by the next duplicate
+        }
+    }
+
+    /**
+     * Completes processing of a message and releases any duplicates waiting
+     * for it
+     * 
+     * @param response the response to store, <code>null</code> if there's
+     *            none worth storing
+     */
+    public void complete(String messageId, byte[] response) {
+        try {
+            if (response == null || !store.put(messageId, response)) {
+                store.put(messageId, PROCESSED);
+            }
+        } finally {
+            release(messageId);
+        }
+    }
+
+    /**
+     * Gives up processing of a message without remembering it, such as a
+     * message that was shed under load. A duplicate waiting for it, or
+     * arriving later, processes the message.
+     */
+    public void abandon(String messageId) {
+        release(messageId);
+    }
+
+    private void release(String messageId) {
+        CountDownLatch latch = inFlight.remove(messageId);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    public int getInFlightMessages() {
+        return inFlight.size();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of serialized payloads, bounded by the number of
+ * entries and by the total number of payload bytes. Entries expire once they
+ * are older than the configured time to live.
+ * 
+ * A single instance may be shared by several endpoints, callers are
+ * responsible for keeping their keys apart.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public class PayloadCache implements PayloadStore {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private int maxEntries = 1000;
+    private long maxBytes = 1024 * 1024;
+    private long timeToLive;
+    private long bytes;
+
+    /**
+     * @return the cached payload, or <code>null</code> when there's none or
+     *         when it has expired
+     */
+    public byte[] get(String key) {
+        byte[] payload = null;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    remove(key, entry);
+                } else {
+                    payload = entry.payload;
+                }
+            }
+        }
+        if (payload != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return payload;
+    }
+
+    /**
+     * Stores the given payload, evicting the least recently used entries
+     * until the cache is within its bounds again. Payloads larger than the
+     * max bytes bound are not stored.
+     * 
+     * The payload is stored as is, callers must not modify it afterwards.
+     * 
+     * @return whether the payload was stored
+     */
+    public synchronized boolean put(String key, byte[] payload) {
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= previous.payload.length;
+        }
+        if (payload.length > maxBytes) {
+            return false;
+        }
+        long expiresAt = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        entries.put(key, new Entry(payload, expiresAt));
+        bytes += payload.length;
+        evict();
+        return entries.containsKey(key);
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.payload.length;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.payload.length;
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total number of payload bytes currently cached
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of lookups that found a payload, 0 if there have
+     *         been none
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return lookups > 0 ? (double) hitCount / lookups : 0;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return time in milliseconds after which entries expire, 0 if they
+     *         never expire
+     */
+    public synchronized long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the time in milliseconds after which new entries expire, 0 or less
+     * to never expire them
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    private static final class Entry {
+        private final byte[] payload;
+        private final long expiresAt;
+
+        private Entry(byte[] payload, long expiresAt) {
+            this.payload = payload;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
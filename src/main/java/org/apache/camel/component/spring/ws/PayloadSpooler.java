@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+
+/**
+ * Buffers webservice payloads so they can be read more than once without
+ * keeping the original message around. Payloads up to the threshold are
+ * kept in memory, larger payloads are spilled to a temporary file. The disk
+ * space taken by all spooled payloads of a component is bounded by a shared
+ * {@link SpoolSpace}.
+ * 
+ * @author Richard Kettelerij
+ */
+public class PayloadSpooler {
+
+    private static final String TEMP_FILE_PREFIX = "camel-springws-";
+    private static final String TEMP_FILE_SUFFIX = ".spool";
+
+    private final long threshold;
+    private final File directory;
+    private final SpoolSpace spoolSpace;
+    private final XmlResourcePool xmlResourcePool;
+
+    /**
+     * @param threshold
+     *            size in bytes above which payloads are spilled to disk
+     * @param directory
+     *            directory for the spool files, or <code>null</code> for the
+     *            default temporary directory
+     * @param spoolSpace
+     *            disk space available to this spooler
+     * @param xmlResourcePool
+     *            pool used to serialize payloads
+     */
+    public PayloadSpooler(long threshold, File directory, SpoolSpace spoolSpace, XmlResourcePool xmlResourcePool) {
+        this.threshold = threshold;
+        this.directory = directory;
+        this.spoolSpace = spoolSpace;
+        this.xmlResourcePool = xmlResourcePool;
+    }
+
+    /**
+     * Serializes the given payload into a re-readable source. The caller is
+     * responsible for releasing it once it's no longer needed.
+     * 
+     * @throws TransformerException
+     *             when the payload can't be serialized, or the spool space is
+     *             exhausted
+     */
+    public SpooledPayloadSource spool(Source payload) throws TransformerException {
+        SpoolOutputStream out = new SpoolOutputStream();
+        try {
+            xmlResourcePool.transform(payload, new StreamResult(out));
+            out.close();
+        } catch (TransformerException e) {
+            out.discard();
+            throw e;
+        } catch (IOException e) {
+            out.discard();
+            throw new TransformerException(e);
+        } catch (RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.toSource();
+    }
+
+    /**
+     * Copies the given stream into a re-readable source and closes it. The
+     * caller is responsible for releasing the source once it's no longer
+     * needed.
+     * 
+     * @throws IOException
+     *             when the stream can't be read, or the spool space is
+     *             exhausted
+     */
+    public SpooledPayloadSource spool(InputStream in) throws IOException {
+        SpoolOutputStream out = new SpoolOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            out.close();
+        } catch (IOException e) {
+            out.discard();
+            throw e;
+        } catch (RuntimeException e) {
+            out.discard();
+            throw e;
+        } finally {
+            in.close();
+        }
+        return out.toSource();
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public SpoolSpace getSpoolSpace() {
+        return spoolSpace;
+    }
+
+    /**
+     * Keeps track of the disk space taken by spooled payloads
+     */
+    public static class SpoolSpace {
+        private final AtomicLong used = new AtomicLong();
+        private volatile long limit;
+
+        /**
+         * @param limit
+         *            maximum number of bytes on disk, 0 for no limit
+         */
+        public SpoolSpace(long limit) {
+            this.limit = limit;
+        }
+
+        boolean reserve(long bytes) {
+            while (true) {
+                long current = used.get();
+                long next = current + bytes;
+                if (limit > 0 && next > limit) {
+                    return false;
+                }
+                if (used.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long bytes) {
+            used.addAndGet(-bytes);
+        }
+
+        public long getUsed() {
+            return used.get();
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        public void setLimit(long limit) {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Writes to memory until the threshold is exceeded and to a temporary
+     * file from then on
+     */
+    private final class SpoolOutputStream extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileOut;
+        private long size;
+        private long reserved;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (file == null && size + len > threshold) {
+                spill();
+            }
+            if (file != null) {
+                reserve(len);
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileOut != null) {
+                fileOut.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        private void spill() throws IOException {
+            reserve(size);
+            file = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, directory);
+            fileOut = new BufferedOutputStream(new FileOutputStream(file));
+            memory.writeTo(fileOut);
+            memory = null;
+        }
+
+        private void reserve(long bytes) throws IOException {
+            if (!spoolSpace.reserve(bytes)) {
+                throw new IOException("Spool space of " + spoolSpace.getLimit() + " bytes exhausted, can't spool payload");
+            }
+            reserved += bytes;
+        }
+
+        /**
+         * Removes the spool file and returns its space after a failure
+         */
+        private void discard() {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    // the file is deleted anyway
+                }
+            }
+            if (file != null) {
+                file.delete();
+            }
+            spoolSpace.release(reserved);
+        }
+
+        private SpooledPayloadSource toSource() {
+            if (file != null) {
+                return new SpooledPayloadSource(file, reserved, spoolSpace);
+            }
+            return new SpooledPayloadSource(memory.toByteArray());
+        }
+    }
+}
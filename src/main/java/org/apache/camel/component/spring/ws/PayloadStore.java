@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+/**
+ * Store of serialized payloads by key, such as the responses remembered by an
+ * idempotent consumer. Implementations must be thread-safe and are expected
+ * to bound their size and expire entries, {@link PayloadCache} keeps them in
+ * memory. Other implementations may keep them on disk or in a shared store.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public interface PayloadStore {
+
+    /**
+     * @return the stored payload, or <code>null</code> if there's none
+     */
+    byte[] get(String key);
+
+    /**
+     * @return whether the payload was stored, stores may refuse payloads
+     *         that exceed their bounds
+     */
+    boolean put(String key, byte[] payload);
+}
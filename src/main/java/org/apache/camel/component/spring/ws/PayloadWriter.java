@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.Message;
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Writes the body of a Camel message into the payload {@link Result} of a
+ * webservice response without going through an identity
+ * {@link javax.xml.transform.Transformer}.
+ * <p>
+ * DOM bodies are imported directly into a {@link DOMResult} (as used by
+ * SAAJ). All other supported bodies are streamed as SAX events, either into
+ * the handler of a {@link SAXResult} (as used by Axiom and StAX results) or
+ * into a builder that appends nodes to a {@link DOMResult}. Bodies of other
+ * types are converted to a {@link Source} and copied with a pooled
+ * Transformer.
+ * 
+ * @author Richard Kettelerij
+ */
+final class PayloadWriter {
+
+    private final XmlResourcePool xmlResourcePool;
+
+    PayloadWriter(XmlResourcePool xmlResourcePool) {
+        this.xmlResourcePool = xmlResourcePool;
+    }
+
+    public void write(Message message, Result result) throws Exception {
+        Object body = message.getBody();
+        if (body instanceof DOMSource) {
+            body = ((DOMSource) body).getNode();
+        }
+        if (body instanceof Node && result instanceof DOMResult && ((DOMResult) result).getNode() != null) {
+            importNode((Node) body, (DOMResult) result);
+        } else if (body != null && !writeAsSax(body, result)) {
+            xmlResourcePool.transform(message.getMandatoryBody(Source.class), result);
+        }
+    }
+
+    private boolean writeAsSax(Object body, Result result) throws Exception {
+        ContentHandler handler = getContentHandler(result);
+        if (handler == null) {
+            return false;
+        }
+        if (body instanceof Node) {
+            new DomEventWriter(handler).write((Node) body);
+            return true;
+        }
+        XMLReader reader = null;
+        InputSource inputSource = null;
+        if (body instanceof SAXSource) {
+            // includes Spring's StaxSource, which reads from a StAX stream
+            reader = ((SAXSource) body).getXMLReader();
+            inputSource = ((SAXSource) body).getInputSource();
+        } else if (body instanceof StreamSource) {
+            inputSource = XmlResourcePool.toInputSource((StreamSource) body);
+        } else if (body instanceof String) {
+            inputSource = new InputSource(new StringReader((String) body));
+        } else if (body instanceof byte[]) {
+            inputSource = new InputSource(new ByteArrayInputStream((byte[]) body));
+        }
+        if (inputSource == null) {
+            return false;
+        }
+        xmlResourcePool.parse(reader, inputSource, handler);
+        return true;
+    }
+
+    private ContentHandler getContentHandler(Result result) {
+        if (result instanceof SAXResult) {
+            return ((SAXResult) result).getHandler();
+        }
+        if (result instanceof DOMResult) {
+            DOMResult domResult = (DOMResult) result;
+            if (domResult.getNode() != null) {
+                return new DomBuilder(domResult.getNode(), domResult.getNextSibling());
+            }
+        }
+        return null;
+    }
+
+    private void importNode(Node body, DOMResult result) {
+        Node parent = result.getNode();
+        Document document = parent.getNodeType() == Node.DOCUMENT_NODE ? (Document) parent : parent.getOwnerDocument();
+        Node source = body.getNodeType() == Node.DOCUMENT_NODE ? ((Document) body).getDocumentElement() : body;
+        if (source == null) {
+            return;
+        }
+        Node imported = document.importNode(source, true);
+        if (result.getNextSibling() != null) {
+            parent.insertBefore(imported, result.getNextSibling());
+        } else {
+            parent.appendChild(imported);
+        }
+    }
+
+    /**
+     * Emits SAX events for a DOM tree, declaring namespaces that the tree
+     * uses but doesn't declare (e.g. when built with createElementNS).
+     */
+    static final class DomEventWriter {
+        private final ContentHandler handler;
+        private final List<Map<String, String>> scopes = new ArrayList<Map<String, String>>();
+
+        DomEventWriter(ContentHandler handler) {
+            this.handler = handler;
+        }
+
+        public void write(Node node) throws SAXException {
+            handler.startDocument();
+            if (node.getNodeType() == Node.DOCUMENT_NODE || node.getNodeType() == Node.DOCUMENT_FRAGMENT_NODE) {
+                writeChildren(node);
+            } else {
+                writeNode(node);
+            }
+            handler.endDocument();
+        }
+
+        private void writeChildren(Node node) throws SAXException {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                writeNode(child);
+            }
+        }
+
+        private void writeNode(Node node) throws SAXException {
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) node);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                char[] text = node.getNodeValue().toCharArray();
+                handler.characters(text, 0, text.length);
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                handler.processingInstruction(node.getNodeName(), node.getNodeValue());
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                writeChildren(node);
+                break;
+            default:
+                // comments, document types, etc. have no SAX content event
+                break;
+            }
+        }
+
+        private void writeElement(Element element) throws SAXException {
+            Map<String, String> declared = new HashMap<String, String>();
+            AttributesImpl attributes = new AttributesImpl();
+            NamedNodeMap attributeNodes = element.getAttributes();
+            for (int i = 0; i < attributeNodes.getLength(); i++) {
+                Attr attribute = (Attr) attributeNodes.item(i);
+                String name = attribute.getName();
+                if (XMLConstants.XMLNS_ATTRIBUTE.equals(name)) {
+                    declared.put("", attribute.getValue());
+                } else if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                    declared.put(name.substring(6), attribute.getValue());
+                } else {
+                    String uri = nullToEmpty(attribute.getNamespaceURI());
+                    if (uri.length() > 0) {
+                        declareIfUnbound(declared, nullToEmpty(attribute.getPrefix()), uri);
+                    }
+                    attributes.addAttribute(uri, localName(attribute), name, "CDATA", attribute.getValue());
+                }
+            }
+            String uri = nullToEmpty(element.getNamespaceURI());
+            declareIfUnbound(declared, nullToEmpty(element.getPrefix()), uri);
+
+            scopes.add(declared);
+            for (Map.Entry<String, String> declaration : declared.entrySet()) {
+                handler.startPrefixMapping(declaration.getKey(), declaration.getValue());
+            }
+            handler.startElement(uri, localName(element), element.getNodeName(), attributes);
+            writeChildren(element);
+            handler.endElement(uri, localName(element), element.getNodeName());
+            for (String prefix : declared.keySet()) {
+                handler.endPrefixMapping(prefix);
+            }
+            scopes.remove(scopes.size() - 1);
+        }
+
+        private void declareIfUnbound(Map<String, String> declared, String prefix, String uri) {
+            if (declared.containsKey(prefix)) {
+                return;
+            }
+            String bound = "";
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                if (scopes.get(i).containsKey(prefix)) {
+                    bound = scopes.get(i).get(prefix);
+                    break;
+                }
+            }
+            if (!bound.equals(uri)) {
+                declared.put(prefix, uri);
+            }
+        }
+
+        private static String localName(Node node) {
+            return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+        }
+    }
+
+    /**
+     * Builds DOM nodes from SAX events and appends them to a given node.
+     */
+    static final class DomBuilder extends DefaultHandler {
+        private final Document document;
+        private final Node root;
+        private final Node nextSibling;
+        private final List<Node> open = new ArrayList<Node>();
+        private final Map<String, String> pendingDeclarations = new HashMap<String, String>();
+
+        DomBuilder(Node root, Node nextSibling) {
+            this.root = root;
+            this.nextSibling = nextSibling;
+            this.document = root.getNodeType() == Node.DOCUMENT_NODE ? (Document) root : root.getOwnerDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            pendingDeclarations.put(prefix, uri);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            Element element = document.createElementNS(emptyToNull(uri), qName);
+            for (Map.Entry<String, String> declaration : pendingDeclarations.entrySet()) {
+                String prefix = declaration.getKey();
+                String name = prefix.length() == 0 ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, declaration.getValue());
+            }
+            pendingDeclarations.clear();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String name = attributes.getQName(i);
+                if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                    element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, attributes.getValue(i));
+                } else {
+                    element.setAttributeNS(emptyToNull(attributes.getURI(i)), name, attributes.getValue(i));
+                }
+            }
+            append(element);
+            open.add(element);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            open.remove(open.size() - 1);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            append(document.createTextNode(new String(ch, start, length)));
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            append(document.createProcessingInstruction(target, data));
+        }
+
+        private void append(Node node) {
+            if (!open.isEmpty()) {
+                open.get(open.size() - 1).appendChild(node);
+            } else if (root.getNodeType() == Node.DOCUMENT_NODE && node.getNodeType() == Node.TEXT_NODE) {
+                // text outside the document element can't be added to a document
+                return;
+            } else if (nextSibling != null) {
+                root.insertBefore(node, nextSibling);
+            } else {
+                root.appendChild(node);
+            }
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String emptyToNull(String value) {
+        return value != null && value.length() > 0 ? value : null;
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.http.CommonsHttpConnection;
+import org.springframework.ws.transport.http.CommonsHttpMessageSender;
+
+/**
+ * HTTP message sender that keeps persistent connections in a pool bounded per
+ * host and in total. The pool keeps track of the time spent waiting for a
+ * connection and of the connections in use.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public class PooledHttpMessageSender extends CommonsHttpMessageSender {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+    private final InstrumentedConnectionManager connectionManager;
+    private final boolean keepAlive;
+
+    /**
+     * @param connectionTimeout timeout in milliseconds for establishing a
+     *            connection, 0 for none
+     * @param readTimeout timeout in milliseconds for reading the response, 0
+     *            for none
+     * @param keepAlive whether connections are kept open between requests
+     */
+    public PooledHttpMessageSender(int maxConnectionsPerHost, int maxTotalConnections, int connectionTimeout, int readTimeout, boolean keepAlive) {
+        this(new InstrumentedConnectionManager(), keepAlive);
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        params.setMaxTotalConnections(maxTotalConnections);
+        params.setConnectionTimeout(connectionTimeout);
+        params.setSoTimeout(readTimeout);
+    }
+
+    private PooledHttpMessageSender(InstrumentedConnectionManager connectionManager, boolean keepAlive) {
+        super(new HttpClient(connectionManager));
+        this.connectionManager = connectionManager;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if the pool has been shut down
+     */
+    @Override
+    public WebServiceConnection createConnection(URI uri) throws IOException {
+        WebServiceConnection connection = createReservedConnection(uri);
+        if (connection == null) {
+            throw new IllegalStateException("Connection pool has been shut down");
+        }
+        return connection;
+    }
+
+    /**
+     * Creates a connection that keeps the pool from being shut down until the
+     * connection is closed
+     * 
+     * @return the connection, or <code>null</code> if the pool has been shut
+     *         down
+     */
+    WebServiceConnection createReservedConnection(URI uri) throws IOException {
+        if (!connectionManager.reserve()) {
+            return null;
+        }
+        try {
+            PostMethod postMethod = ((CommonsHttpConnection) super.createConnection(uri)).getPostMethod();
+            if (!keepAlive) {
+                // the connection is closed once the response has been read
+                postMethod.setRequestHeader("Connection", "close");
+            }
+            return new ReservedConnection(getHttpClient(), postMethod, connectionManager);
+        } catch (IOException e) {
+            connectionManager.released();
+            throw e;
+        } catch (RuntimeException e) {
+            connectionManager.released();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all pooled connections, the sender can't be used afterwards
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Closes the idle connections and closes connections in use once they're
+     * released, instead of returning them to the pool. The pool is shut down
+     * as soon as no requests are in flight. Unlike {@link #shutdown()}
+     * requests in flight complete normally.
+     */
+    public void retire() {
+        connectionManager.retire();
+    }
+
+    /**
+     * @return whether the pool has been shut down, either explicitly or after
+     *         being retired
+     */
+    public boolean isShutdown() {
+        return connectionManager.isShutdown();
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return the number of connections, in use or idle, in the pool
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * @return the number of requests in flight, whether they've leased a
+     *         connection or are waiting for one
+     */
+    public int getConnectionsInUse() {
+        return connectionManager.getConnectionsInUse();
+    }
+
+    /**
+     * @return the number of connections leased from the pool so far
+     */
+    public long getLeaseCount() {
+        return connectionManager.leases.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for a connection
+     */
+    public long getTotalLeaseWaitTime() {
+        return connectionManager.totalLeaseWaitTime.get();
+    }
+
+    /**
+     * @return the longest time in milliseconds spent waiting for a connection
+     */
+    public long getMaxLeaseWaitTime() {
+        return connectionManager.maxLeaseWaitTime.get();
+    }
+
+    /**
+     * Connection of a request in flight, which releases its reservation of
+     * the pool once closed
+     */
+    private static final class ReservedConnection extends CommonsHttpConnection {
+        private final InstrumentedConnectionManager connectionManager;
+        private boolean closed;
+
+        private ReservedConnection(HttpClient httpClient, PostMethod postMethod, InstrumentedConnectionManager connectionManager) {
+            super(httpClient, postMethod);
+            this.connectionManager = connectionManager;
+        }
+
+        @Override
+        public void onClose() throws IOException {
+            try {
+                super.onClose();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    connectionManager.released();
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection manager recording lease wait times and the number of
+     * requests in flight, which shuts itself down once retired and no longer
+     * in use
+     */
+    private static final class InstrumentedConnectionManager extends MultiThreadedHttpConnectionManager {
+        private final AtomicLong leases = new AtomicLong();
+        private final AtomicLong totalLeaseWaitTime = new AtomicLong();
+        private final AtomicLong maxLeaseWaitTime = new AtomicLong();
+        private final Object lock = new Object();
+        // guarded by lock
+        private int inUse;
+        private boolean retired;
+        private boolean shutdown;
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+            long start = System.nanoTime();
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+            long waited = (System.nanoTime() - start) / 1000000L;
+            leases.incrementAndGet();
+            totalLeaseWaitTime.addAndGet(waited);
+            long max = maxLeaseWaitTime.get();
+            while (waited > max && !maxLeaseWaitTime.compareAndSet(max, waited)) {
+                max = maxLeaseWaitTime.get();
+            }
+            return connection;
+        }
+
+        @Override
+        public void releaseConnection(HttpConnection connection) {
+            if (isRetired()) {
+                connection.close();
+            }
+            super.releaseConnection(connection);
+        }
+
+        /**
+         * Reserves the pool for a request, the pool isn't shut down by
+         * retiring it until the request has completed
+         * 
+         * @return whether the pool was reserved, <code>false</code> if it
+         *         has been shut down
+         */
+        boolean reserve() {
+            synchronized (lock) {
+                if (shutdown) {
+                    return false;
+                }
+                inUse++;
+                return true;
+            }
+        }
+
+        void released() {
+            boolean shutdownNow;
+            synchronized (lock) {
+                inUse--;
+                shutdownNow = retired && inUse == 0 && !shutdown;
+                if (shutdownNow) {
+                    shutdown = true;
+                }
+            }
+            if (shutdownNow) {
+                super.shutdown();
+            }
+        }
+
+        void retire() {
+            boolean shutdownNow;
+            synchronized (lock) {
+                retired = true;
+                shutdownNow = inUse == 0 && !shutdown;
+                if (shutdownNow) {
+                    shutdown = true;
+                }
+            }
+            if (shutdownNow) {
+                super.shutdown();
+            } else {
+                closeIdleConnections(0);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (lock) {
+                shutdown = true;
+            }
+            super.shutdown();
+        }
+
+        boolean isRetired() {
+            synchronized (lock) {
+                return retired;
+            }
+        }
+
+        boolean isShutdown() {
+            synchronized (lock) {
+                return shutdown;
+            }
+        }
+
+        int getConnectionsInUse() {
+            synchronized (lock) {
+                return inUse;
+            }
+        }
+    }
+}
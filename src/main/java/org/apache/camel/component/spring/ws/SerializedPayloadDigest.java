@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+
+/**
+ * Computes the hex encoded SHA-1 digests of serialized payloads used as cache
+ * keys. Payloads are serialized with the identity transform, which evens out
+ * lexical differences such as quoting and whitespace within tags. This is not
+ * XML canonicalization: payloads that differ only in namespace prefixes,
+ * attribute order or whitespace between elements get different digests,
+ * which costs a cache miss but never returns a wrong response.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+final class SerializedPayloadDigest {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private SerializedPayloadDigest() {
+    }
+
+    /**
+     * Digests the serialized source without buffering it
+     */
+    public static String digest(XmlResourcePool xmlResourcePool, Source source) throws TransformerException {
+        MessageDigest digest = newDigest();
+        OutputStream out = new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, digest);
+        xmlResourcePool.transform(source, new StreamResult(out));
+        return toHex(digest.digest());
+    }
+
+    public static String digest(byte[] payload) {
+        return toHex(newDigest().digest(payload));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.RuntimeCamelException;
+
+/**
+ * A payload buffered by a {@link PayloadSpooler}, either in memory or in a
+ * temporary file. Unlike a regular {@link StreamSource} it can be read any
+ * number of times.
+ * 
+ * {@link #getInputStream()} returns the same stream until that stream has
+ * been read from or closed, so the usual check-then-get idiom of
+ * {@link StreamSource} users opens a single stream. Only once a reader has
+ * started on it does the next call return a new stream positioned at the
+ * start of the payload. Callers that read the payload on their own account,
+ * without consuming the body, use {@link #openStream()} and close the stream
+ * themselves. Streams still open when the payload is released are closed.
+ * 
+ * @author Richard Kettelerij
+ */
+public class SpooledPayloadSource extends StreamSource {
+
+    private final byte[] data;
+    private final File file;
+    private final long size;
+    private final PayloadSpooler.SpoolSpace spoolSpace;
+    private final List<SpoolInputStream> openStreams = new ArrayList<SpoolInputStream>();
+    private SpoolInputStream current;
+    private volatile boolean released;
+
+    SpooledPayloadSource(byte[] data) {
+        this.data = data;
+        this.file = null;
+        this.size = data.length;
+        this.spoolSpace = null;
+    }
+
+    SpooledPayloadSource(File file, long size, PayloadSpooler.SpoolSpace spoolSpace) {
+        this.data = null;
+        this.file = file;
+        this.size = size;
+        this.spoolSpace = spoolSpace;
+    }
+
+    /**
+     * Returns the stream of this source, opening a new one only when the
+     * previous stream has been read from or closed
+     */
+    @Override
+    public synchronized InputStream getInputStream() {
+        if (current == null || current.isUsed()) {
+            current = open();
+        }
+        return current;
+    }
+
+    /**
+     * Opens a new stream positioned at the start of the payload, which the
+     * caller is responsible for closing
+     */
+    public synchronized InputStream openStream() {
+        return open();
+    }
+
+    private SpoolInputStream open() {
+        if (released) {
+            throw new IllegalStateException("Spooled payload has already been released");
+        }
+        InputStream in;
+        if (file == null) {
+            in = new ByteArrayInputStream(data);
+        } else {
+            try {
+                in = new BufferedInputStream(new FileInputStream(file));
+            } catch (FileNotFoundException e) {
+                throw new RuntimeCamelException(e);
+            }
+        }
+        SpoolInputStream stream = new SpoolInputStream(in);
+        openStreams.add(stream);
+        return stream;
+    }
+
+    private synchronized void closed(SpoolInputStream stream) {
+        openStreams.remove(stream);
+    }
+
+    /**
+     * Returns the size of the payload in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns whether the payload is kept in memory rather than on disk
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Closes the streams still open, deletes the spool file, if any, and
+     * returns its space. The payload can't be read afterwards.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        current = null;
+        for (SpoolInputStream stream : new ArrayList<SpoolInputStream>(openStreams)) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+        }
+        if (file != null) {
+            file.delete();
+            spoolSpace.release(size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpooledPayloadSource [size=" + size + ", file=" + file + "]";
+    }
+
+    /**
+     * Remembers whether it has been read from, and deregisters itself from
+     * the source when closed
+     */
+    private final class SpoolInputStream extends FilterInputStream {
+        private volatile boolean used;
+
+        private SpoolInputStream(InputStream in) {
+            super(in);
+        }
+
+        boolean isUsed() {
+            return used;
+        }
+
+        @Override
+        public int read() throws IOException {
+            used = true;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            used = true;
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            used = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            used = true;
+            closed(this);
+            super.close();
+        }
+    }
+}
@@ -18,8 +18,14 @@ package org.apache.camel.component.spring.ws;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
+import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
 
 import org.apache.camel.CamelContext;
@@ -27,9 +33,10 @@ import org.apache.camel.Endpoint;
 import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.component.spring.ws.bean.CamelEndpointDispatcher;
 import org.apache.camel.component.spring.ws.bean.CamelEndpointMapping;
+import org.apache.camel.component.spring.ws.bean.XPathExpressionCache;
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
 import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
 import org.apache.camel.component.spring.ws.type.EndpointMappingType;
-import org.apache.camel.converter.jaxp.XmlConverter;
 import org.apache.camel.impl.DefaultComponent;
 import org.apache.camel.util.UnsafeUriCharactersEncoder;
 import org.apache.commons.logging.Log;
@@ -38,7 +45,6 @@ import org.springframework.ws.WebServiceMessageFactory;
 import org.springframework.ws.client.core.WebServiceTemplate;
 import org.springframework.ws.transport.WebServiceMessageSender;
 import org.springframework.xml.xpath.XPathExpression;
-import org.springframework.xml.xpath.XPathExpressionFactory;
 
 /**
  * Apache Camel component for working with Spring Web Services (a.k.a
@@ -48,6 +54,12 @@ import org.springframework.xml.xpath.XPathExpressionFactory;
  */
 public class SpringWebserviceComponent extends DefaultComponent {
     private static final Log LOG = LogFactory.getLog(SpringWebserviceComponent.class);
+    private final XPathExpressionCache xpathExpressionCache = new XPathExpressionCache();
+    private final ConcurrentMap<TransformerFactory, XmlResourcePool> transformerFactoryPools = new ConcurrentHashMap<TransformerFactory, XmlResourcePool>();
+    private XmlResourcePool xmlResourcePool = XmlResourcePool.getDefaultInstance();
+    private final PayloadSpooler.SpoolSpace spoolSpace = new PayloadSpooler.SpoolSpace(0);
+    private final ConcurrentMap<String, PooledHttpMessageSender> httpMessageSenders = new ConcurrentHashMap<String, PooledHttpMessageSender>();
+    private final ConcurrentMap<String, DestinationHttpMessageSender> destinationMessageSenders = new ConcurrentHashMap<String, DestinationHttpMessageSender>();
 
     public SpringWebserviceComponent() {
         super();
@@ -62,8 +74,15 @@ public class SpringWebserviceComponent extends DefaultComponent {
         SpringWebserviceConfiguration configuration = new SpringWebserviceConfiguration();
         addConsumerConfiguration(remaining, parameters, configuration);
         addProducerConfiguration(remaining, parameters, configuration);
-        addXmlConverterToConfiguration(parameters, configuration);
+        addXmlResourcePoolToConfiguration(parameters, configuration);
         setProperties(configuration, parameters);
+        if (configuration.isStreamingBody() && configuration.getResponseCache() != null) {
+            // the cache key is digested from the request payload before the
+            // route runs, a streamed payload can only be read once
+            throw new RuntimeCamelException("The responseCache option can't be combined with streamingBody, "
+                                            + "as the request payload is read to compute the cache key before the route reads it");
+        }
+        addPayloadSpoolerToConfiguration(configuration);
         return new SpringWebserviceEndpoint(this, configuration);
     }
 
@@ -77,9 +96,24 @@ public class SpringWebserviceComponent extends DefaultComponent {
             } else {
                 addEndpointMappingToConfiguration(parameters, configuration);
             }
+            // optional executor on which routes for this consumer are run
+            configuration.setExecutorService(resolveAndRemoveReferenceParameter(parameters, "executorService", ExecutorService.class, null));
+            configuration.setHeaderFilter(getHeaderFilterFromParameters(parameters));
+            // optional (shared) cache of responses to repeated requests
+            configuration.setResponseCache(resolveAndRemoveReferenceParameter(parameters, "responseCache", PayloadCache.class, null));
+            // a custom store of responses implies an idempotent consumer
+            PayloadStore idempotentStore = resolveAndRemoveReferenceParameter(parameters, "idempotentStore", PayloadStore.class, null);
+            if (idempotentStore != null) {
+                configuration.setIdempotent(true);
+                configuration.setIdempotentStore(idempotentStore);
+            }
             if (EndpointMappingType.XPATHRESULT.equals(type)) {
-                XPathExpression expression = getXPathExpressionFromParameters(parameters);
-                configuration.setEndpointMappingKey(new EndpointMappingKey(type, lookupKey, expression));
+                String expressionText = getXPathExpressionTextFromParameters(parameters);
+                Map<String, String> namespaces = getXPathNamespacesFromParameters(parameters);
+                XPathExpression expression = xpathExpressionCache.getExpression(expressionText, namespaces);
+                EndpointMappingKey endpointMappingKey = new EndpointMappingKey(type, lookupKey, expressionText, expression);
+                endpointMappingKey.setNamespaces(namespaces);
+                configuration.setEndpointMappingKey(endpointMappingKey);
             } else {
                 configuration.setEndpointMappingKey(new EndpointMappingKey(type, lookupKey, null));
             }
@@ -94,7 +128,11 @@ public class SpringWebserviceComponent extends DefaultComponent {
             // Obtain a WebServiceTemplate from the registry when specified by
             // an option on the component, else create a new template with
             // Spring-WS defaults
-            WebServiceTemplate webServiceTemplate = resolveAndRemoveReferenceParameter(parameters, "webServiceTemplate", WebServiceTemplate.class, new WebServiceTemplate());
+            WebServiceTemplate webServiceTemplate = resolveAndRemoveReferenceParameter(parameters, "webServiceTemplate", WebServiceTemplate.class, null);
+            boolean referencedTemplate = webServiceTemplate != null;
+            if (webServiceTemplate == null) {
+                webServiceTemplate = new WebServiceTemplate();
+            }
             WebServiceMessageSender messageSender = resolveAndRemoveReferenceParameter(parameters, "messageSender", WebServiceMessageSender.class, null);
             WebServiceMessageFactory messageFactory = resolveAndRemoveReferenceParameter(parameters, "messageFactory", WebServiceMessageFactory.class, null);
 
@@ -104,25 +142,127 @@ public class SpringWebserviceComponent extends DefaultComponent {
             if (messageSender != null) {
                 webServiceTemplate.setMessageSender(messageSender);
             }
+            addHttpMessageSenderToConfiguration(parameters, webServiceEndpointUri, messageSender != null, referencedTemplate, webServiceTemplate, configuration);
             if (messageFactory != null) {
                 webServiceTemplate.setMessageFactory(messageFactory);
             }
             configuration.setWebServiceTemplate(webServiceTemplate);
+            // optional executor on which requests are sent asynchronously
+            configuration.setExecutorService(resolveAndRemoveReferenceParameter(parameters, "executorService", ExecutorService.class, null));
+            // optional (shared) cache of responses to repeated requests
+            configuration.setResponseCache(resolveAndRemoveReferenceParameter(parameters, "responseCache", PayloadCache.class, null));
         }
     }
 
+    /**
+     * Uses a pooled HTTP message sender for HTTP(S) endpoints that opt in by
+     * setting maxConnectionsPerHost, maxTotalConnections, keepAlive or
+     * maxDestinations, unless a sender is referenced. Other endpoints keep the sender of their
+     * template. The connectionTimeout and readTimeout options configure the
+     * pooled sender and hence require pooling. Endpoints targeting the same
+     * host with the same options share a sender and its connections. With the
+     * maxDestinations option every destination addressed through the
+     * endpoint URI header gets its own pool of at most maxConnectionsPerHost
+     * connections, maxTotalConnections doesn't apply. Endpoints with the same
+     * options share these pools. The options can't be combined with a
+     * referenced template, which may be shared by other endpoints and beans.
+     */
+    private void addHttpMessageSenderToConfiguration(Map<String, Object> parameters, URI uri, boolean customSender, boolean referencedTemplate,
+                                                     WebServiceTemplate webServiceTemplate, SpringWebserviceConfiguration configuration) {
+        Integer maxDestinations = getAndRemoveParameter(parameters, "maxDestinations", Integer.class);
+        Integer maxConnectionsPerHost = getAndRemoveParameter(parameters, "maxConnectionsPerHost", Integer.class);
+        Integer maxTotalConnections = getAndRemoveParameter(parameters, "maxTotalConnections", Integer.class);
+        Integer connectionTimeout = getAndRemoveParameter(parameters, "connectionTimeout", Integer.class);
+        Integer readTimeout = getAndRemoveParameter(parameters, "readTimeout", Integer.class);
+        Boolean keepAlive = getAndRemoveParameter(parameters, "keepAlive", Boolean.class);
+        boolean pooled = maxDestinations != null || maxConnectionsPerHost != null || maxTotalConnections != null || keepAlive != null;
+        if (!pooled) {
+            if (connectionTimeout != null || readTimeout != null) {
+                throw new RuntimeCamelException("The connectionTimeout and readTimeout options apply to pooled connections, "
+                                                + "which require maxConnectionsPerHost, maxTotalConnections, keepAlive or maxDestinations to be set");
+            }
+            return;
+        }
+        if (referencedTemplate) {
+            throw new RuntimeCamelException("The maxConnectionsPerHost, maxTotalConnections, keepAlive and maxDestinations options can't be combined "
+                                            + "with a referenced webServiceTemplate, configure a message sender on the template instead");
+        }
+        String scheme = uri.getScheme();
+        if (customSender || !"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            return;
+        }
+        int perHost = maxConnectionsPerHost != null ? maxConnectionsPerHost : PooledHttpMessageSender.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        int total = maxTotalConnections != null ? maxTotalConnections : PooledHttpMessageSender.DEFAULT_MAX_TOTAL_CONNECTIONS;
+        int connect = connectionTimeout != null ? connectionTimeout : 0;
+        int read = readTimeout != null ? readTimeout : 0;
+        boolean persistent = keepAlive != null ? keepAlive : true;
+
+        if (maxDestinations != null && maxDestinations > 0) {
+            String key = maxDestinations + "," + perHost + "," + connect + "," + read + "," + persistent;
+            DestinationHttpMessageSender sender = destinationMessageSenders.get(key);
+            if (sender == null) {
+                DestinationHttpMessageSender newSender = new DestinationHttpMessageSender(maxDestinations, perHost, connect, read, persistent);
+                sender = destinationMessageSenders.putIfAbsent(key, newSender);
+                if (sender == null) {
+                    sender = newSender;
+                } else {
+                    newSender.shutdown();
+                }
+            }
+            webServiceTemplate.setMessageSender(sender);
+            configuration.setDestinationMessageSender(sender);
+            return;
+        }
+
+        String key = scheme.toLowerCase() + "://" + uri.getHost() + ":" + uri.getPort() + "?" + perHost + "," + total + "," + connect + "," + read + "," + persistent;
+        PooledHttpMessageSender sender = httpMessageSenders.get(key);
+        if (sender == null) {
+            PooledHttpMessageSender newSender = new PooledHttpMessageSender(perHost, total, connect, read, persistent);
+            sender = httpMessageSenders.putIfAbsent(key, newSender);
+            if (sender == null) {
+                sender = newSender;
+            } else {
+                newSender.shutdown();
+            }
+        }
+        webServiceTemplate.setMessageSender(sender);
+        configuration.setHttpMessageSender(sender);
+    }
+
     private String getLookupKey(String remaining, EndpointMappingType type) {
         String lookupKey = remaining.substring(type.getPrefix().length());
         return lookupKey.startsWith("//") ? lookupKey.substring(2) : lookupKey;
     }
 
-    private XPathExpression getXPathExpressionFromParameters(Map<String, Object> parameters) {
+    private String getXPathExpressionTextFromParameters(Map<String, Object> parameters) {
         String xpathExpression = getAndRemoveParameter(parameters, "expression", String.class);
         if (xpathExpression == null) {
             throw new RuntimeCamelException("Expression parameter is required when using XPath endpoint mapping");
         }
-        XPathExpression expression = XPathExpressionFactory.createXPathExpression(xpathExpression);
-        return expression;
+        return xpathExpression;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> getXPathNamespacesFromParameters(Map<String, Object> parameters) {
+        // optional reference to a map of prefix to namespace URI bindings
+        return resolveAndRemoveReferenceParameter(parameters, "namespaces", Map.class, null);
+    }
+
+    private Set<QName> getHeaderFilterFromParameters(Map<String, Object> parameters) {
+        // optional comma separated list of SOAP header QNames, e.g.
+        // {http://acme.com/}Token,{http://acme.com/}TraceId, a local part
+        // of * matches all headers in a namespace, e.g. {http://acme.com/}*
+        String headerFilter = getAndRemoveParameter(parameters, "headerFilter", String.class);
+        if (headerFilter == null) {
+            return null;
+        }
+        Set<QName> names = new HashSet<QName>();
+        for (String name : headerFilter.split(",")) {
+            if (name.trim().length() > 0) {
+                names.add(QName.valueOf(name.trim()));
+            }
+        }
+        return names;
     }
 
     private void addEndpointMappingToConfiguration(Map<String, Object> parameters, SpringWebserviceConfiguration configuration) {
@@ -143,12 +283,73 @@ public class SpringWebserviceComponent extends DefaultComponent {
         configuration.setEndpointDispatcher(endpoint);
     }
 
-    private void addXmlConverterToConfiguration(Map<String, Object> parameters, SpringWebserviceConfiguration configuration) {
-        XmlConverter xmlConverter = new XmlConverter();
+    private void addXmlResourcePoolToConfiguration(Map<String, Object> parameters, SpringWebserviceConfiguration configuration) {
+        // Endpoints share the component's pool, unless they specify their own
+        // TransformerFactory, in which case they share a pool per factory
         TransformerFactory transformerFactory = resolveAndRemoveReferenceParameter(parameters, "transformerFactory", TransformerFactory.class, null);
-        if (transformerFactory != null) {
-            xmlConverter.setTransformerFactory(transformerFactory);
+        if (transformerFactory == null) {
+            configuration.setXmlResourcePool(xmlResourcePool);
+            return;
+        }
+        XmlResourcePool pool = transformerFactoryPools.get(transformerFactory);
+        if (pool == null) {
+            XmlResourcePool newPool = new XmlResourcePool(transformerFactory);
+            pool = transformerFactoryPools.putIfAbsent(transformerFactory, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        configuration.setXmlResourcePool(pool);
+    }
+
+    private void addPayloadSpoolerToConfiguration(SpringWebserviceConfiguration configuration) {
+        // payloads are only spooled when a threshold is configured, all
+        // endpoints of this component share the same spool space
+        if (configuration.getSpoolThreshold() > 0) {
+            configuration.setPayloadSpooler(new PayloadSpooler(configuration.getSpoolThreshold(), configuration.getSpoolDirectory(), spoolSpace, configuration.getXmlResourcePool()));
+            configuration.setAttachmentSpooler(configuration.getPayloadSpooler());
+        } else {
+            // response attachments are copied regardless, large ones are
+            // spilled to disk rather than held in memory
+            configuration.setAttachmentSpooler(new PayloadSpooler(SpringWebserviceConfiguration.DEFAULT_ATTACHMENT_SPOOL_THRESHOLD, configuration.getSpoolDirectory(), spoolSpace, configuration.getXmlResourcePool()));
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        // requests still in flight complete before the pools are shut down
+        for (PooledHttpMessageSender sender : httpMessageSenders.values()) {
+            sender.retire();
+        }
+        httpMessageSenders.clear();
+        for (DestinationHttpMessageSender sender : destinationMessageSenders.values()) {
+            sender.retire();
         }
-        configuration.setXmlConverter(xmlConverter);
+        destinationMessageSenders.clear();
+        super.doStop();
+    }
+
+    public long getMaxSpoolSize() {
+        return spoolSpace.getLimit();
+    }
+
+    /**
+     * Sets the maximum number of bytes that spooled payloads of all endpoints
+     * of this component may take on disk, 0 (the default) means unbounded
+     */
+    public void setMaxSpoolSize(long maxSpoolSize) {
+        spoolSpace.setLimit(maxSpoolSize);
+    }
+
+    public XmlResourcePool getXmlResourcePool() {
+        return xmlResourcePool;
+    }
+
+    /**
+     * Sets the pool of XML resources shared by the endpoints of this
+     * component, e.g. to share it with a {@link CamelEndpointMapping}
+     */
+    public void setXmlResourcePool(XmlResourcePool xmlResourcePool) {
+        this.xmlResourcePool = xmlResourcePool;
     }
 }
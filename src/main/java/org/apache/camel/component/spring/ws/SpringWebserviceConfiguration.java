@@ -16,27 +16,56 @@
  */
 package org.apache.camel.component.spring.ws;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.xml.namespace.QName;
 
 import org.apache.camel.component.spring.ws.bean.CamelEndpointDispatcher;
 import org.apache.camel.component.spring.ws.bean.CamelEndpointMapping;
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
 import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
 import org.apache.camel.converter.jaxp.XmlConverter;
 import org.springframework.ws.client.core.WebServiceTemplate;
 
 public class SpringWebserviceConfiguration {
 
+    public static final long DEFAULT_ATTACHMENT_SPOOL_THRESHOLD = 64 * 1024;
+
     /* Producer configuration */
     private WebServiceTemplate webServiceTemplate;
     private String soapAction;
     private URI wsAddressingAction;
+    private PooledHttpMessageSender httpMessageSender;
+    private DestinationHttpMessageSender destinationMessageSender;
 
     /* Consumer configuration */
     private CamelEndpointMapping endpointMapping;
     private CamelEndpointDispatcher endpointDispatcher;
     private EndpointMappingKey endpointMappingKey;
+    private long asyncTimeout;
+    private Set<QName> headerFilter;
+    private boolean streamingBody;
+    private int maxConcurrentRequests;
+    private int maxQueuedRequests;
+    private long queueTimeout;
+    private boolean idempotent;
+    private PayloadStore idempotentStore;
+
+    /* Shared configuration */
+    private boolean async;
+    private ExecutorService executorService;
+    private PayloadCache responseCache;
+    private long spoolThreshold;
+    private File spoolDirectory;
+    private PayloadSpooler payloadSpooler;
+    private PayloadSpooler attachmentSpooler;
+    private boolean mtom;
 
+    private XmlResourcePool xmlResourcePool;
     private XmlConverter xmlConverter;
 
     public WebServiceTemplate getWebServiceTemplate() {
@@ -77,6 +106,30 @@ public class SpringWebserviceConfiguration {
         this.wsAddressingAction = new URI(wsAddressingAction);
     }
 
+    /**
+     * @return the pooled HTTP message sender created for this endpoint, or
+     *         <code>null</code> when the template's sender is used
+     */
+    public PooledHttpMessageSender getHttpMessageSender() {
+        return httpMessageSender;
+    }
+
+    public void setHttpMessageSender(PooledHttpMessageSender httpMessageSender) {
+        this.httpMessageSender = httpMessageSender;
+    }
+
+    /**
+     * @return the HTTP message sender pooling connections per destination
+     *         created for this endpoint, or <code>null</code> if there's none
+     */
+    public DestinationHttpMessageSender getDestinationMessageSender() {
+        return destinationMessageSender;
+    }
+
+    public void setDestinationMessageSender(DestinationHttpMessageSender destinationMessageSender) {
+        this.destinationMessageSender = destinationMessageSender;
+    }
+
     public CamelEndpointMapping getEndpointMapping() {
         return endpointMapping;
     }
@@ -101,11 +154,212 @@ public class SpringWebserviceConfiguration {
         this.endpointDispatcher = endpointDispatcher;
     }
 
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public Set<QName> getHeaderFilter() {
+        return headerFilter;
+    }
+
+    public void setHeaderFilter(Set<QName> headerFilter) {
+        this.headerFilter = headerFilter;
+    }
+
+    public boolean isStreamingBody() {
+        return streamingBody;
+    }
+
+    public void setStreamingBody(boolean streamingBody) {
+        this.streamingBody = streamingBody;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public void setQueueTimeout(long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * @return cache of serialized responses, <code>null</code> when responses
+     *         aren't cached. Consumers can't cache responses when
+     *         {@link #isStreamingBody()} is set.
+     */
+    public PayloadCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(PayloadCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * @return whether duplicates of a message, by WS-Addressing MessageID,
+     *         are answered with the stored response to the original. A
+     *         duplicate arriving while the original is processed waits for
+     *         at most the async timeout, or a minute without one, and is
+     *         answered with a fault after that.
+     *         <p>
+     *         Only the response payload is stored. Responses with
+     *         attachments, faults, empty responses and responses the store
+     *         refuses for their size (over 1 MB for the default in-memory
+     *         store) aren't stored. Their message is remembered as processed
+     *         all the same, and a duplicate of it is answered with a fault
+     *         saying so. Requests that were shed under load aren't
+     *         remembered.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * @return store of the responses to processed messages by WS-Addressing
+     *         MessageID, <code>null</code> to use an in-memory store
+     */
+    public PayloadStore getIdempotentStore() {
+        return idempotentStore;
+    }
+
+    public void setIdempotentStore(PayloadStore idempotentStore) {
+        this.idempotentStore = idempotentStore;
+    }
+
+    /**
+     * @return size in bytes above which payloads are spooled to disk, 0 when
+     *         payloads aren't spooled. Producers spool responses. Consumers
+     *         spool requests only when the message factory exposes the
+     *         payload as a stream, such as Axiom with payload caching
+     *         disabled. The default SAAJ factory holds the whole request in
+     *         memory as a DOM tree, which is used as-is and isn't spooled.
+     */
+    public long getSpoolThreshold() {
+        return spoolThreshold;
+    }
+
+    public void setSpoolThreshold(long spoolThreshold) {
+        this.spoolThreshold = spoolThreshold;
+    }
+
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public PayloadSpooler getPayloadSpooler() {
+        return payloadSpooler;
+    }
+
+    public void setPayloadSpooler(PayloadSpooler payloadSpooler) {
+        this.payloadSpooler = payloadSpooler;
+    }
+
+    /**
+     * @return spooler used by producers to copy response attachments. This is
+     *         the payload spooler when spooling is enabled, otherwise
+     *         attachments above {@link #DEFAULT_ATTACHMENT_SPOOL_THRESHOLD}
+     *         are still spilled to disk so they're never held in memory as a
+     *         whole.
+     */
+    public PayloadSpooler getAttachmentSpooler() {
+        return attachmentSpooler;
+    }
+
+    public void setAttachmentSpooler(PayloadSpooler attachmentSpooler) {
+        this.attachmentSpooler = attachmentSpooler;
+    }
+
+    /**
+     * @return whether outgoing messages with attachments are packaged as
+     *         MTOM/XOP rather than SwA. Incoming MTOM/XOP messages are
+     *         handled regardless, their parts are exposed as attachments while
+     *         the xop:Include elements remain in the payload.
+     */
+    public boolean isMtom() {
+        return mtom;
+    }
+
+    public void setMtom(boolean mtom) {
+        this.mtom = mtom;
+    }
+
+    public XmlResourcePool getXmlResourcePool() {
+        return xmlResourcePool;
+    }
+
+    public void setXmlResourcePool(XmlResourcePool xmlResourcePool) {
+        this.xmlResourcePool = xmlResourcePool;
+        this.xmlConverter = null;
+    }
+
+    /**
+     * @return a converter using the TransformerFactory of the XML resource
+     *         pool
+     * @deprecated use {@link #getXmlResourcePool()}
+     */
+    @Deprecated
     public XmlConverter getXmlConverter() {
+        if (xmlConverter == null && xmlResourcePool != null) {
+            XmlConverter converter = new XmlConverter();
+            converter.setTransformerFactory(xmlResourcePool.getTransformerFactory());
+            xmlConverter = converter;
+        }
         return xmlConverter;
     }
 
+    /**
+     * Sets a pool of XML resources using the TransformerFactory of the given
+     * converter
+     * 
+     * @deprecated use {@link #setXmlResourcePool(XmlResourcePool)}
+     */
+    @Deprecated
     public void setXmlConverter(XmlConverter xmlConverter) {
+        this.xmlResourcePool = xmlConverter != null ? new XmlResourcePool(xmlConverter.getTransformerFactory()) : null;
         this.xmlConverter = xmlConverter;
     }
 }
@@ -16,19 +16,33 @@
  */
 package org.apache.camel.component.spring.ws;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
 import org.apache.camel.ExchangePattern;
+import org.apache.camel.ExchangeTimedOutException;
 import org.apache.camel.Message;
 import org.apache.camel.Processor;
-import org.apache.camel.converter.jaxp.XmlConverter;
+import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.impl.DefaultConsumer;
 import org.apache.camel.impl.DefaultExchange;
 import org.springframework.ws.WebServiceMessage;
@@ -40,45 +54,382 @@ import org.springframework.ws.soap.SoapMessage;
 
 public class SpringWebserviceConsumer extends DefaultConsumer implements MessageEndpoint {
 
+    private static final String OVERLOAD_FAULT_STRING = "Service is overloaded, please retry later";
+    private static final String WS_ADDRESSING_10_NAMESPACE = "http://www.w3.org/2005/08/addressing";
+    private static final String WS_ADDRESSING_200408_NAMESPACE = "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+    private static final long DEFAULT_IDEMPOTENT_TIME_TO_LIVE = 10 * 60 * 1000L;
+    private static final long DEFAULT_DUPLICATE_WAIT_TIMEOUT = 60 * 1000L;
+
     private SpringWebserviceEndpoint endpoint;
     private SpringWebserviceConfiguration configuration;
+    private PayloadWriter payloadWriter;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private PayloadCache responseCache;
+    private IdempotentReceiver idempotentReceiver;
+    private String keyPrefix;
 
     public SpringWebserviceConsumer(Endpoint endpoint, Processor processor) {
         super(endpoint, processor);
         this.endpoint = (SpringWebserviceEndpoint) endpoint;
         this.configuration = this.endpoint.getConfiguration();
+        this.payloadWriter = new PayloadWriter(configuration.getXmlResourcePool());
+        if (configuration.getMaxConcurrentRequests() > 0) {
+            this.concurrencyLimiter = new ConcurrencyLimiter(configuration.getMaxConcurrentRequests(), configuration.getMaxQueuedRequests(), configuration.getQueueTimeout());
+        }
+        this.responseCache = configuration.getResponseCache();
+        if (configuration.isIdempotent()) {
+            PayloadStore idempotentStore = configuration.getIdempotentStore();
+            if (idempotentStore == null) {
+                PayloadCache defaultStore = new PayloadCache();
+                defaultStore.setTimeToLive(DEFAULT_IDEMPOTENT_TIME_TO_LIVE);
+                idempotentStore = defaultStore;
+            }
+            // a duplicate waits as long as the route may take for the original
+            long waitTimeout = configuration.getAsyncTimeout() > 0 ? configuration.getAsyncTimeout() : DEFAULT_DUPLICATE_WAIT_TIMEOUT;
+            this.idempotentReceiver = new IdempotentReceiver(idempotentStore, waitTimeout);
+        }
+        // caches and stores may be shared, keep the keys of this consumer apart
+        this.keyPrefix = configuration.getEndpointMappingKey() + "#";
     }
 
     /**
      * Invoked by Spring-WS when a {@link WebServiceMessage} is received
      */
     public void invoke(MessageContext messageContext) throws Exception {
+        String cacheKey = null;
+        if (responseCache != null) {
+            // cached responses are served without running the route
+            cacheKey = getResponseCacheKey(messageContext.getRequest());
+            byte[] cachedResponse = responseCache.get(cacheKey);
+            if (cachedResponse != null) {
+                writeStoredResponse(cachedResponse, messageContext.getResponse());
+                return;
+            }
+        }
+        String messageId = null;
+        if (idempotentReceiver != null) {
+            // duplicates get the response to the original message
+            messageId = getMessageId(messageContext.getRequest());
+            if (messageId != null) {
+                byte[] storedResponse;
+                try {
+                    storedResponse = idempotentReceiver.begin(messageId);
+                } catch (TimeoutException e) {
+                    addServerFault(messageContext, e.getMessage() + ", please retry later");
+                    return;
+                }
+                if (storedResponse != null && storedResponse.length == 0) {
+                    // the original had no response that could be stored
+                    addServerFault(messageContext, "Message " + messageId.substring(keyPrefix.length()) + " has already been processed");
+                    return;
+                }
+                if (storedResponse != null) {
+                    writeStoredResponse(storedResponse, messageContext.getResponse());
+                    return;
+                }
+            }
+        }
+        byte[] response = null;
+        boolean processed = false;
+        try {
+            boolean storeResponse = cacheKey != null || messageId != null;
+            if (concurrencyLimiter == null || concurrencyLimiter.acquire()) {
+                try {
+                    response = processMessage(messageContext, storeResponse);
+                    processed = true;
+                } catch (RejectedExecutionException e) {
+                    addServerFault(messageContext, OVERLOAD_FAULT_STRING);
+                } finally {
+                    if (concurrencyLimiter != null) {
+                        concurrencyLimiter.release();
+                    }
+                }
+            } else {
+                addServerFault(messageContext, OVERLOAD_FAULT_STRING);
+            }
+            if (cacheKey != null && response != null) {
+                responseCache.put(cacheKey, response);
+            }
+        } finally {
+            if (messageId != null && processed) {
+                idempotentReceiver.complete(messageId, response);
+            } else if (messageId != null) {
+                // a shed or failed request may be sent again
+                idempotentReceiver.abandon(messageId);
+            }
+        }
+    }
+
+    /**
+     * @param storeResponse whether to serialize the response for storage
+     * @return the serialized response, or <code>null</code> if it isn't
+     *         requested or isn't fit for storage
+     * @throws RejectedExecutionException
+     *             if the executor doesn't accept the exchange
+     */
+    private byte[] processMessage(MessageContext messageContext, boolean storeResponse) throws Exception {
         Exchange exchange = new DefaultExchange(endpoint.getCamelContext(), ExchangePattern.InOptionalOut);
-        populateExchangeFromMessageContext(messageContext, exchange);
-
-        // start message processing
-        getProcessor().process(exchange);
-
-        // create webservice response from output body
-        if (exchange.getPattern().isOutCapable()) {
-            Message responseMessage = exchange.getOut(Message.class);
-            if (responseMessage != null) {
-                Source responseBody = responseMessage.getBody(Source.class);
-                WebServiceMessage response = messageContext.getResponse();
-                XmlConverter xmlConverter = configuration.getXmlConverter();
-                xmlConverter.toResult(responseBody, response.getPayloadResult());
+        SpringWebserviceMessage inMessage = populateExchangeFromMessageContext(messageContext, exchange);
+        SpooledRequest request = new SpooledRequest(inMessage);
+        try {
+            // start message processing
+            try {
+                if (configuration.getExecutorService() != null) {
+                    processOnExecutor(exchange, request);
+                } else if (configuration.isAsync()) {
+                    processAsync(exchange, request);
+                } else {
+                    getProcessor().process(exchange);
+                }
+            } catch (ExchangeTimedOutException e) {
+                addServerFault(messageContext, "Route did not complete within " + configuration.getAsyncTimeout() + " ms");
+                return null;
+            }
+
+            // create webservice response from output body
+            if (exchange.getPattern().isOutCapable()) {
+                Message responseMessage = exchange.getOut(Message.class);
+                if (responseMessage != null) {
+                    WebServiceMessage response = messageContext.getResponse();
+                    payloadWriter.write(responseMessage, response.getPayloadResult());
+                    AttachmentMapper.addAttachments(responseMessage, response, configuration.isMtom());
+                    // responses of failed exchanges aren't stored
+                    if (storeResponse && exchange.getException() == null) {
+                        return serializeResponse(responseMessage, response);
+                    }
+                }
+            }
+        } finally {
+            // the spooled request is no longer needed once the response is
+            // written, and the route has completed
+            request.release();
+        }
+        return null;
+    }
+
+    /**
+     * Computes the response cache key of a request from the mapping key of
+     * this consumer and a digest of the serialized request payload. The
+     * request payload is read twice, once here and once by the
+     * route, which requires a message factory that keeps the payload in
+     * memory (such as the default SAAJ factory). For that reason the
+     * response cache can't be combined with the streamingBody option.
+     */
+    private String getResponseCacheKey(WebServiceMessage request) throws Exception {
+        return keyPrefix + SerializedPayloadDigest.digest(configuration.getXmlResourcePool(), request.getPayloadSource());
+    }
+
+    /**
+     * Reads the WS-Addressing MessageID from the SOAP header
+     * 
+     * @return the message ID, prefixed to keep it apart from those of other
+     *         consumers, or <code>null</code> if the message has none
+     */
+    private String getMessageId(WebServiceMessage request) {
+        if (!(request instanceof SoapMessage)) {
+            return null;
+        }
+        SoapHeader soapHeader = ((SoapMessage) request).getSoapHeader();
+        if (soapHeader == null) {
+            return null;
+        }
+        Iterator<?> elementIterator = soapHeader.examineAllHeaderElements();
+        while (elementIterator.hasNext()) {
+            SoapHeaderElement element = (SoapHeaderElement) elementIterator.next();
+            QName name = element.getName();
+            if ("MessageID".equals(name.getLocalPart())
+                && (WS_ADDRESSING_10_NAMESPACE.equals(name.getNamespaceURI()) || WS_ADDRESSING_200408_NAMESPACE.equals(name.getNamespaceURI()))) {
+                String messageId = element.getText();
+                return messageId != null && messageId.trim().length() > 0 ? keyPrefix + messageId.trim() : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serializes the response payload. Faults, empty responses and responses
+     * with attachments aren't serialized.
+     * 
+     * @return the serialized payload, or <code>null</code>
+     */
+    private byte[] serializeResponse(Message responseMessage, WebServiceMessage response) throws Exception {
+        if (responseMessage.hasAttachments()) {
+            return null;
+        }
+        if (response instanceof SoapMessage && ((SoapMessage) response).getSoapBody().hasFault()) {
+            return null;
+        }
+        Source payload = response.getPayloadSource();
+        if (payload == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        configuration.getXmlResourcePool().transform(payload, new StreamResult(out));
+        return out.toByteArray();
+    }
+
+    private void writeStoredResponse(byte[] storedResponse, WebServiceMessage response) throws Exception {
+        configuration.getXmlResourcePool().transform(new StreamSource(new ByteArrayInputStream(storedResponse)), response.getPayloadResult());
+    }
+
+    /**
+     * Answers with a SOAP Server fault, used when a request is shed or its
+     * route doesn't complete in time
+     */
+    private void addServerFault(MessageContext messageContext, String faultString) {
+        WebServiceMessage response = messageContext.getResponse();
+        if (!(response instanceof SoapMessage)) {
+            throw new RuntimeCamelException(faultString);
+        }
+        ((SoapMessage) response).getSoapBody().addServerOrReceiverFault(faultString, Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the number of requests currently being processed, or 0 when
+     * the number of concurrent requests isn't limited
+     */
+    public int getInFlightRequests() {
+        return concurrencyLimiter != null ? concurrencyLimiter.getInFlightRequests() : 0;
+    }
+
+    /**
+     * Returns the number of requests waiting to be processed
+     */
+    public int getQueuedRequests() {
+        return concurrencyLimiter != null ? concurrencyLimiter.getQueuedRequests() : 0;
+    }
+
+    /**
+     * Returns the number of requests rejected because the consumer was
+     * overloaded
+     */
+    public long getRejectedRequests() {
+        return concurrencyLimiter != null ? concurrencyLimiter.getRejectedRequests() : 0;
+    }
+
+    /**
+     * Returns the number of duplicate messages answered with a stored
+     * response, or 0 when the consumer isn't idempotent
+     */
+    public long getDuplicateRequests() {
+        return idempotentReceiver != null ? idempotentReceiver.getDuplicates() : 0;
+    }
+
+    /**
+     * Hands the exchange to the asynchronous routing engine. Spring-WS
+     * requires the response to be written before this endpoint returns, so
+     * the calling thread only parks until the exchange completes or the
+     * configured timeout elapses.
+     */
+    private void processAsync(final Exchange exchange, final SpooledRequest request) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        request.retain();
+        boolean sync = getAsyncProcessor().process(exchange, new AsyncCallback() {
+            public void done(boolean doneSync) {
+                request.release();
+                if (!doneSync) {
+                    latch.countDown();
+                }
+            }
+        });
+        if (!sync) {
+            long timeout = configuration.getAsyncTimeout();
+            if (timeout <= 0) {
+                latch.await();
+            } else if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new ExchangeTimedOutException(exchange, timeout);
             }
         }
     }
 
-    private void populateExchangeFromMessageContext(MessageContext messageContext, Exchange exchange) {
+    /**
+     * Runs the route on the configured executor while the transport thread
+     * waits for the outcome, bounded by the configured timeout. This lets
+     * routes that block on I/O run on a pool that is sized independently
+     * of the servlet container. A request the executor rejects is answered
+     * with the same fault as an overloaded consumer.
+     */
+    private void processOnExecutor(final Exchange exchange, final SpooledRequest request) throws Exception {
+        // claimed by the task when it starts, or by this thread when the task
+        // is cancelled before it does
+        final AtomicBoolean claimed = new AtomicBoolean();
+        request.retain();
+        Future<?> future;
+        try {
+            future = configuration.getExecutorService().submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    if (!claimed.compareAndSet(false, true)) {
+                        return null;
+                    }
+                    try {
+                        getProcessor().process(exchange);
+                    } finally {
+                        request.release();
+                    }
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            request.release();
+            throw e;
+        }
+        long timeout = configuration.getAsyncTimeout();
+        try {
+            if (timeout <= 0) {
+                future.get();
+            } else {
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true)) {
+                request.release();
+            }
+            throw new ExchangeTimedOutException(exchange, timeout);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new RuntimeCamelException(cause);
+        }
+    }
+
+    /**
+     * Request whose spooled payload is released once both the transport
+     * thread and the route are done with it. A route that outlives its
+     * timeout still reads the payload after the transport thread has given
+     * up on it.
+     */
+    private static final class SpooledRequest {
+        private final SpringWebserviceMessage message;
+        private final AtomicInteger holders = new AtomicInteger(1);
+
+        private SpooledRequest(SpringWebserviceMessage message) {
+            this.message = message;
+        }
+
+        private void retain() {
+            holders.incrementAndGet();
+        }
+
+        private void release() {
+            if (holders.decrementAndGet() == 0) {
+                message.releaseSpooledPayload();
+            }
+        }
+    }
+
+    private SpringWebserviceMessage populateExchangeFromMessageContext(MessageContext messageContext, Exchange exchange) {
         populateExchangeWithPropertiesFromMessageContext(messageContext, exchange);
 
         // create inbound message
         WebServiceMessage request = messageContext.getRequest();
-        SpringWebserviceMessage inMessage = new SpringWebserviceMessage(request);
-        inMessage.setHeaders(extractSoapHeadersFromWebServiceMessage(request));
+        // SOAP headers are copied lazily, on first access of the headers
+        SpringWebserviceMessage inMessage = new SpringWebserviceMessage(request, configuration.getHeaderFilter());
+        inMessage.setPayloadSpooler(configuration.getPayloadSpooler());
+        if (configuration.isStreamingBody()) {
+            inMessage.setStreamingInputFactory(configuration.getXmlResourcePool().getXMLInputFactory());
+        }
         exchange.setIn(inMessage);
+        return inMessage;
     }
 
     private void populateExchangeWithPropertiesFromMessageContext(MessageContext messageContext, Exchange exchange) {
@@ -92,30 +443,6 @@ public class SpringWebserviceConsumer extends DefaultConsumer implements Message
         }
     }
 
-    private Map<String, Object> extractSoapHeadersFromWebServiceMessage(WebServiceMessage request) {
-        Map<String, Object> headers = new HashMap<String, Object>();
-        if (request instanceof SoapMessage) {
-            SoapMessage soapMessage = (SoapMessage) request;
-            SoapHeader soapHeader = soapMessage.getSoapHeader();
-            if (soapHeader != null) {
-                Iterator<?> attibutesIterator = soapHeader.getAllAttributes();
-                while (attibutesIterator.hasNext()) {
-                    QName name = (QName) attibutesIterator.next();
-                    headers.put(name.toString(), soapHeader.getAttributeValue(name));
-                }
-                Iterator<?> elementIter = soapHeader.examineAllHeaderElements();
-                while (elementIter.hasNext()) {
-                    Object element = elementIter.next();
-                    if (element instanceof SoapHeaderElement) {
-                        QName name = ((SoapHeaderElement) element).getName();
-                        headers.put(name.toString(), element);
-                    }
-                }
-            }
-        }
-        return headers;
-    }
-
     @Override
     protected void doStop() throws Exception {
         if (configuration.getEndpointMapping() != null) {
@@ -16,25 +16,222 @@
  */
 package org.apache.camel.component.spring.ws;
 
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.activation.DataHandler;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.impl.DefaultMessage;
 import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.soap.SoapHeader;
+import org.springframework.ws.soap.SoapHeaderElement;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.xml.transform.StaxSource;
 
 public class SpringWebserviceMessage extends DefaultMessage {
+    private static final String WILDCARD = "*";
+
     private WebServiceMessage webServiceMessage;
+    private Set<QName> headerFilter;
+    private XMLInputFactory streamingInputFactory;
+    private PayloadSpooler payloadSpooler;
+    private SpooledPayloadSource spooledPayload;
 
     public SpringWebserviceMessage(WebServiceMessage webServiceMessage) {
+        this(webServiceMessage, null);
+    }
+
+    /**
+     * Creates a message whose headers expose only the SOAP header attributes
+     * and elements named in the given filter. A filter entry with local part
+     * <code>*</code>, such as <code>{http://acme.com/}*</code>, matches all
+     * of them in its namespace. A <code>null</code> filter exposes all of
+     * them.
+     */
+    public SpringWebserviceMessage(WebServiceMessage webServiceMessage, Set<QName> headerFilter) {
         super();
         this.webServiceMessage = webServiceMessage;
+        this.headerFilter = headerFilter;
     }
 
     @Override
     protected Object createBody() {
         if (webServiceMessage != null) {
-            return webServiceMessage.getPayloadSource();
+            Source payload = webServiceMessage.getPayloadSource();
+            // DOM payloads are in memory already, spooling would only copy them
+            if (payloadSpooler != null && payload != null && !(payload instanceof DOMSource)) {
+                payload = spool(payload);
+            }
+            return streamingInputFactory != null ? toStaxSource(payload) : payload;
         }
         return null;
     }
 
+    private Source spool(Source payload) {
+        try {
+            spooledPayload = payloadSpooler.spool(payload);
+            return spooledPayload;
+        } catch (TransformerException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    /**
+     * Releases the payload buffered by the {@link PayloadSpooler}, if any
+     */
+    public void releaseSpooledPayload() {
+        if (spooledPayload != null) {
+            spooledPayload.release();
+        }
+    }
+
+    /**
+     * Exposes stream based payloads as a pull-based {@link StaxSource}.
+     * Payloads that already are StAX based, such as those of an Axiom message
+     * factory with payload caching disabled, are returned as-is. So are DOM
+     * payloads, which are in memory already.
+     */
+    private Source toStaxSource(Source payload) {
+        if (payload instanceof StreamSource) {
+            StreamSource streamSource = (StreamSource) payload;
+            try {
+                InputStream inputStream = streamSource.getInputStream();
+                if (inputStream != null) {
+                    return new StaxSource(streamingInputFactory.createXMLStreamReader(inputStream));
+                }
+                Reader reader = streamSource.getReader();
+                if (reader != null) {
+                    return new StaxSource(streamingInputFactory.createXMLStreamReader(reader));
+                }
+            } catch (XMLStreamException e) {
+                throw new RuntimeCamelException(e);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Copies the SOAP header attributes and elements to the Camel headers.
+     * Invoked the first time the headers are accessed, so routes that never
+     * read them don't pay for walking the SOAP header. With a header filter
+     * only the named elements are looked up, the SOAP header is only walked
+     * as a whole for filter entries that match a namespace.
+     */
+    @Override
+    protected void populateInitialHeaders(Map<String, Object> map) {
+        if (!(webServiceMessage instanceof SoapMessage)) {
+            return;
+        }
+        SoapHeader soapHeader = ((SoapMessage) webServiceMessage).getSoapHeader();
+        if (soapHeader == null) {
+            return;
+        }
+        if (headerFilter == null) {
+            populateAllHeaders(soapHeader, map, null);
+            return;
+        }
+        Set<String> namespaces = null;
+        for (QName name : headerFilter) {
+            if (WILDCARD.equals(name.getLocalPart())) {
+                if (namespaces == null) {
+                    namespaces = new HashSet<String>();
+                }
+                namespaces.add(name.getNamespaceURI());
+                continue;
+            }
+            String value = soapHeader.getAttributeValue(name);
+            if (value != null) {
+                map.put(name.toString(), value);
+            }
+            Iterator<?> elementIterator = soapHeader.examineHeaderElements(name);
+            while (elementIterator.hasNext()) {
+                map.put(name.toString(), elementIterator.next());
+            }
+        }
+        if (namespaces != null) {
+            populateAllHeaders(soapHeader, map, namespaces);
+        }
+    }
+
+    /**
+     * Copies the SOAP header attributes and elements in the given namespaces
+     * to the Camel headers, or all of them when <code>namespaces</code> is
+     * <code>null</code>
+     */
+    private void populateAllHeaders(SoapHeader soapHeader, Map<String, Object> map, Set<String> namespaces) {
+        Iterator<?> attributesIterator = soapHeader.getAllAttributes();
+        while (attributesIterator.hasNext()) {
+            QName name = (QName) attributesIterator.next();
+            if (namespaces == null || namespaces.contains(name.getNamespaceURI())) {
+                map.put(name.toString(), soapHeader.getAttributeValue(name));
+            }
+        }
+        Iterator<?> elementIterator = soapHeader.examineAllHeaderElements();
+        while (elementIterator.hasNext()) {
+            Object element = elementIterator.next();
+            if (element instanceof SoapHeaderElement) {
+                QName name = ((SoapHeaderElement) element).getName();
+                if (namespaces == null || namespaces.contains(name.getNamespaceURI())) {
+                    map.put(name.toString(), element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Exposes the SwA and MTOM attachments of the webservice message. Their
+     * content is streamed from the message when read, not copied.
+     */
+    @Override
+    protected void populateInitialAttachments(Map<String, DataHandler> map) {
+        AttachmentMapper.extractAttachments(webServiceMessage, map);
+    }
+
+    public Set<QName> getHeaderFilter() {
+        return headerFilter;
+    }
+
+    public void setHeaderFilter(Set<QName> headerFilter) {
+        this.headerFilter = headerFilter;
+    }
+
+    public XMLInputFactory getStreamingInputFactory() {
+        return streamingInputFactory;
+    }
+
+    /**
+     * Sets the factory used to expose the payload as a {@link StaxSource}, or
+     * <code>null</code> to expose the payload source of the message as-is
+     */
+    public void setStreamingInputFactory(XMLInputFactory streamingInputFactory) {
+        this.streamingInputFactory = streamingInputFactory;
+    }
+
+    public PayloadSpooler getPayloadSpooler() {
+        return payloadSpooler;
+    }
+
+    /**
+     * Sets the spooler used to buffer the payload when the body is created,
+     * or <code>null</code> to use the payload source of the message directly.
+     * DOM payloads, such as those of a SAAJ message, aren't spooled.
+     */
+    public void setPayloadSpooler(PayloadSpooler payloadSpooler) {
+        this.payloadSpooler = payloadSpooler;
+    }
+
     public WebServiceMessage getWebServiceMessage() {
         return webServiceMessage;
     }
@@ -16,84 +16,336 @@
  */
 package org.apache.camel.component.spring.ws;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.activation.DataHandler;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.TypeConverter;
+import org.apache.camel.converter.jaxp.BytesSource;
 import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.spi.Synchronization;
 import org.springframework.ws.WebServiceMessage;
-import org.springframework.ws.client.core.SourceExtractor;
 import org.springframework.ws.client.core.WebServiceMessageCallback;
+import org.springframework.ws.client.core.WebServiceMessageExtractor;
 import org.springframework.ws.soap.addressing.client.ActionCallback;
 import org.springframework.ws.soap.client.core.SoapActionCallback;
 
-public class SpringWebserviceProducer extends DefaultProducer {
+public class SpringWebserviceProducer extends DefaultProducer implements AsyncProcessor {
 
     private SpringWebserviceEndpoint endpoint;
-    private static final SourceExtractor sourceExtractor = new NoopSourceExtractor();
+    private PayloadWriter payloadWriter;
+    private PayloadSpooler payloadSpooler;
+    private PayloadSpooler attachmentSpooler;
+    private ExecutorService executorService;
+    private boolean shutdownExecutorService;
+    private WebServiceMessageCallback endpointCallback;
 
     public SpringWebserviceProducer(Endpoint endpoint) {
         super(endpoint);
         this.endpoint = (SpringWebserviceEndpoint) endpoint;
+        this.payloadWriter = new PayloadWriter(this.endpoint.getConfiguration().getXmlResourcePool());
+        this.payloadSpooler = this.endpoint.getConfiguration().getPayloadSpooler();
+        this.attachmentSpooler = this.endpoint.getConfiguration().getAttachmentSpooler();
+        // shared by all exchanges that don't override the endpoint options
+        this.endpointCallback = new DefaultWebserviceMessageCallback(null, null);
+    }
+
+    /**
+     * Sends the request on the configured executor when the producer is
+     * asynchronous, so the calling thread is released while the request is
+     * in flight. The exchange completes on the executor thread once the
+     * response has been received.
+     */
+    public boolean process(final Exchange exchange, final AsyncCallback callback) {
+        if (executorService == null) {
+            try {
+                process(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+            }
+            callback.done(true);
+            return true;
+        }
+        try {
+            executorService.submit(new Runnable() {
+                public void run() {
+                    try {
+                        process(exchange);
+                    } catch (Exception e) {
+                        exchange.setException(e);
+                    } finally {
+                        callback.done(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            exchange.setException(e);
+            callback.done(true);
+            return true;
+        }
+        return false;
     }
 
     public void process(Exchange exchange) throws Exception {
-        // Let Camel TypeConverter hierarchy handle the conversion of XML messages to Source objects
-        Source sourcePayload = exchange.getIn().getMandatoryBody(Source.class);
+        // The body is written straight into the request, bodies that aren't
+        // XML already are converted by Camel's TypeConverter hierarchy
+        Message requestMessage = exchange.getIn();
+        requestMessage.getMandatoryBody();
 
         // Extract optional headers
         String endpointUri = exchange.getIn().getHeader(SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, String.class);
         String soapAction = exchange.getIn().getHeader(SpringWebserviceConstants.SPRING_WS_SOAP_ACTION, String.class);
         URI wsAddressingAction = exchange.getIn().getHeader(SpringWebserviceConstants.SPRING_WS_ADDRESSING_ACTION, URI.class);
 
-        WebServiceMessageCallback callback = new DefaultWebserviceMessageCallback(soapAction, wsAddressingAction);
+        WebServiceMessageCallback callback = endpointCallback;
+        if (soapAction != null || wsAddressingAction != null) {
+            callback = new DefaultWebserviceMessageCallback(soapAction, wsAddressingAction);
+        }
+
+        // Serve repeated requests from the response cache, if any
+        PayloadCache responseCache = endpoint.getConfiguration().getResponseCache();
+        byte[] requestPayload = null;
+        String cacheKey = null;
+        if (responseCache != null && !requestMessage.hasAttachments()) {
+            requestPayload = serializeRequest(requestMessage);
+            cacheKey = getResponseCacheKey(endpointUri, soapAction, wsAddressingAction, requestPayload);
+            byte[] cachedResponse = responseCache.get(cacheKey);
+            if (cachedResponse != null) {
+                // the cached bytes are shared, the exchange gets its own copy
+                exchange.getOut().setBody(new BytesSource(copy(cachedResponse)));
+                return;
+            }
+        }
+
+        WebServiceMessageCallback requestCallback = new PayloadWritingCallback(requestMessage, requestPayload, callback);
+        ResponseExtractor responseExtractor = new ResponseExtractor(cacheKey != null);
         Object body = null;
         if (endpointUri != null) {
-            body = endpoint.getConfiguration().getWebServiceTemplate().sendSourceAndReceive(endpointUri, sourcePayload, callback, sourceExtractor);
+            body = endpoint.getConfiguration().getWebServiceTemplate().sendAndReceive(endpointUri, requestCallback, responseExtractor);
         } else {
-            body = endpoint.getConfiguration().getWebServiceTemplate().sendSourceAndReceive(sourcePayload, callback, sourceExtractor);
+            body = endpoint.getConfiguration().getWebServiceTemplate().sendAndReceive(requestCallback, responseExtractor);
+        }
+        final List<SpooledPayloadSource> buffered = responseExtractor.getBuffered();
+        if (body instanceof SpooledPayloadSource) {
+            buffered.add((SpooledPayloadSource) body);
+        }
+        if (!buffered.isEmpty()) {
+            exchange.addOnCompletion(new Synchronization() {
+                public void onComplete(Exchange exchange) {
+                    release(buffered);
+                }
+
+                public void onFailure(Exchange exchange) {
+                    release(buffered);
+                }
+            });
+        }
+        if (cacheKey != null && body instanceof BytesSource && responseExtractor.getAttachments().isEmpty()) {
+            responseCache.put(cacheKey, copy(((BytesSource) body).getData()));
+        }
+        Message responseMessage = exchange.getOut();
+        responseMessage.setBody(body);
+        for (Map.Entry<String, DataHandler> attachment : responseExtractor.getAttachments().entrySet()) {
+            responseMessage.addAttachment(attachment.getKey(), attachment.getValue());
+        }
+    }
+
+    private static byte[] copy(byte[] data) {
+        byte[] copy = new byte[data.length];
+        System.arraycopy(data, 0, copy, 0, data.length);
+        return copy;
+    }
+
+    private static void release(List<SpooledPayloadSource> buffered) {
+        for (SpooledPayloadSource source : buffered) {
+            source.release();
+        }
+    }
+
+    private byte[] serializeRequest(Message requestMessage) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        payloadWriter.write(requestMessage, new StreamResult(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Computes the response cache key from the effective endpoint URI, SOAP
+     * action and WS-Addressing action of a request and a digest of its
+     * serialized payload
+     */
+    private String getResponseCacheKey(String endpointUriHeader, String soapActionHeader, URI wsAddressingActionHeader, byte[] requestPayload) {
+        SpringWebserviceConfiguration configuration = endpoint.getConfiguration();
+        String endpointUri = endpointUriHeader != null ? endpointUriHeader : configuration.getWebServiceTemplate().getDefaultUri();
+        String soapAction = soapActionHeader != null ? soapActionHeader : configuration.getSoapAction();
+        URI wsAddressingAction = wsAddressingActionHeader != null ? wsAddressingActionHeader : configuration.getWsAddressingAction();
+        return endpointUri + "#" + soapAction + "#" + wsAddressingAction + "#" + SerializedPayloadDigest.digest(requestPayload);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        SpringWebserviceConfiguration configuration = endpoint.getConfiguration();
+        if (configuration.getExecutorService() != null) {
+            executorService = configuration.getExecutorService();
+        } else if (configuration.isAsync()) {
+            executorService = endpoint.getCamelContext().getExecutorServiceStrategy().newDefaultThreadPool(this, "SpringWebserviceProducer");
+            shutdownExecutorService = true;
         }
-        exchange.getOut().setBody(body);
     }
 
+    @Override
+    protected void doStop() throws Exception {
+        if (shutdownExecutorService) {
+            endpoint.getCamelContext().getExecutorServiceStrategy().shutdownNow(executorService);
+            shutdownExecutorService = false;
+        }
+        executorService = null;
+        super.doStop();
+    }
+
+    /**
+     * Adds the SoapAction and WS-Addressing Action to webservice requests.
+     * The callbacks doing so are built once, so an instance can be reused for
+     * every request with the same actions.
+     */
     protected class DefaultWebserviceMessageCallback implements WebServiceMessageCallback {
-        private String soapActionHeader;
-        private URI wsAddressingActionHeader;
+        private final SoapActionCallback soapActionCallback;
+        private final ActionCallback actionCallback;
 
-        public DefaultWebserviceMessageCallback(String soapAction, URI wsAddressingAction) {
-            this.soapActionHeader = soapAction;
-            this.wsAddressingActionHeader = wsAddressingAction;
+        public DefaultWebserviceMessageCallback(String soapActionHeader, URI wsAddressingActionHeader) {
+            // Note that exchange headers take precedence over endpoint options
+            String soapAction = soapActionHeader != null ? soapActionHeader : endpoint.getConfiguration().getSoapAction();
+            this.soapActionCallback = soapAction != null ? new SoapActionCallback(soapAction) : null;
+            // the WS-Addressing 'to' header will default to the URL of the
+            // connection
+            URI wsAddressingAction = wsAddressingActionHeader != null ? wsAddressingActionHeader : endpoint.getConfiguration().getWsAddressingAction();
+            this.actionCallback = wsAddressingAction != null ? new ActionCallback(wsAddressingAction) : null;
         }
 
         public void doWithMessage(WebServiceMessage message) throws IOException, TransformerException {
-            // Add SoapAction to webservice request. Note that exchange header
-            // takes precedence over endpoint option
-            String soapAction = soapActionHeader != null ? soapActionHeader : endpoint.getConfiguration().getSoapAction();
-            if (soapAction != null) {
-                new SoapActionCallback(soapAction).doWithMessage(message);
+            if (soapActionCallback != null) {
+                soapActionCallback.doWithMessage(message);
             }
-            // Add WS-Addressing Action to webservice request (the WS-Addressing
-            // 'to' header will default to the URL of the connection).
-            // Note that exchange header takes precedence over endpoint option
-            URI wsAddressingAction = wsAddressingActionHeader != null ? wsAddressingActionHeader : endpoint.getConfiguration().getWsAddressingAction();
-            if (wsAddressingAction != null) {
-                new ActionCallback(wsAddressingAction).doWithMessage(message);
+            if (actionCallback != null) {
+                actionCallback.doWithMessage(message);
             }
         }
     }
 
     /**
-     * A {@link SourceExtractor} that performs no conversion, instead conversion
-     * is handled by Camel's {@link TypeConverter} hierarchy.
+     * Writes the body and attachments of a Camel message into the request
+     * before applying the given callback. A body that has been serialized
+     * already is written from its serialized form.
      */
-    private static class NoopSourceExtractor implements SourceExtractor {
-        public Object extractData(Source source) throws IOException, TransformerException {
-            return source;
+    private class PayloadWritingCallback implements WebServiceMessageCallback {
+        private final Message requestMessage;
+        private final byte[] serializedPayload;
+        private final WebServiceMessageCallback callback;
+
+        public PayloadWritingCallback(Message requestMessage, byte[] serializedPayload, WebServiceMessageCallback callback) {
+            this.requestMessage = requestMessage;
+            this.serializedPayload = serializedPayload;
+            this.callback = callback;
+        }
+
+        public void doWithMessage(WebServiceMessage message) throws IOException, TransformerException {
+            if (serializedPayload != null) {
+                endpoint.getConfiguration().getXmlResourcePool().transform(new StreamSource(new ByteArrayInputStream(serializedPayload)), message.getPayloadResult());
+            } else {
+                try {
+                    payloadWriter.write(requestMessage, message.getPayloadResult());
+                } catch (IOException e) {
+                    throw e;
+                } catch (TransformerException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new TransformerException(e);
+                }
+            }
+            AttachmentMapper.addAttachments(requestMessage, message, endpoint.getConfiguration().isMtom());
+            callback.doWithMessage(message);
+        }
+    }
+
+    /**
+     * A {@link WebServiceMessageExtractor} that returns the response payload
+     * as-is, instead conversion is handled by Camel's {@link TypeConverter}
+     * hierarchy. The payload is buffered when spooling is enabled, so the
+     * response message can be discarded while the payload remains readable
+     * until the exchange completes. When the response is to be cached the
+     * payload is serialized in memory instead. Response attachments are
+     * copied for the out message, as the connection they would be read from
+     * is closed once the response is extracted. Large attachments are
+     * spilled to disk even when payload spooling is disabled.
+     */
+    private class ResponseExtractor implements WebServiceMessageExtractor {
+        private final Map<String, DataHandler> attachments = new LinkedHashMap<String, DataHandler>();
+        private final List<SpooledPayloadSource> buffered = new ArrayList<SpooledPayloadSource>();
+        private final boolean serializePayload;
+
+        public ResponseExtractor(boolean serializePayload) {
+            this.serializePayload = serializePayload;
+        }
+
+        public Object extractData(WebServiceMessage message) throws IOException, TransformerException {
+            try {
+                AttachmentMapper.copyAttachments(message, attachments, attachmentSpooler, buffered);
+                return extractPayload(message);
+            } catch (IOException e) {
+                release(buffered);
+                throw e;
+            } catch (TransformerException e) {
+                release(buffered);
+                throw e;
+            } catch (RuntimeException e) {
+                release(buffered);
+                throw e;
+            }
+        }
+
+        private Object extractPayload(WebServiceMessage message) throws TransformerException {
+            Source payload = message.getPayloadSource();
+            if (payload == null) {
+                return null;
+            }
+            if (serializePayload) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                endpoint.getConfiguration().getXmlResourcePool().transform(payload, new StreamResult(out));
+                return new BytesSource(out.toByteArray());
+            }
+            return payloadSpooler != null ? payloadSpooler.spool(payload) : payload;
+        }
+
+        public Map<String, DataHandler> getAttachments() {
+            return attachments;
+        }
+
+        /**
+         * @return the copied attachments, to be released once the exchange
+         *         completes
+         */
+        public List<SpooledPayloadSource> getBuffered() {
+            return buffered;
         }
     }
 }
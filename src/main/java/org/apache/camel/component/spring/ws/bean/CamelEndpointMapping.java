@@ -16,38 +16,18 @@
  */
 package org.apache.camel.component.spring.ws.bean;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import javax.xml.namespace.QName;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 
-import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
 import org.apache.camel.component.spring.ws.type.EndpointMappingType;
-import org.apache.camel.converter.jaxp.XmlConverter;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.util.StringUtils;
 import org.springframework.ws.context.MessageContext;
 import org.springframework.ws.server.EndpointInterceptor;
 import org.springframework.ws.server.EndpointInvocationChain;
 import org.springframework.ws.server.EndpointMapping;
 import org.springframework.ws.server.endpoint.MessageEndpoint;
 import org.springframework.ws.server.endpoint.mapping.AbstractEndpointMapping;
-import org.springframework.ws.server.endpoint.support.PayloadRootUtils;
-import org.springframework.ws.soap.SoapMessage;
 import org.springframework.ws.soap.server.SoapEndpointInvocationChain;
-import org.springframework.ws.transport.WebServiceConnection;
-import org.springframework.ws.transport.context.TransportContext;
-import org.springframework.ws.transport.context.TransportContextHolder;
-import org.springframework.xml.xpath.XPathExpression;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 /**
  * Spring {@link EndpointMapping} for mapping messages to corresponding Camel endpoints. 
@@ -68,6 +48,13 @@ import org.xml.sax.SAXException;
  * Equivalent to endpoint mappings specified through {@link org.springframework.ws.server.endpoint.mapping.XPathPayloadEndpointMapping}
  * </ul>
  * 
+ * The lookup keys of <tt>rootqname:</tt>, <tt>soapaction:</tt> and <tt>uri:</tt> mappings may contain 
+ * <tt>*</tt> wildcards, e.g. <tt>springws:rootqname:{http://acme.com/orders/*}*</tt>. Within a mapping 
+ * type exact matches always take priority over wildcard matches. Across mapping types the order of 
+ * precedence still applies, so a wildcard SOAP action such as <tt>springws:soapaction:*</tt> wins over 
+ * an exact <tt>rootqname:</tt> match. This keeps the payload from being parsed when a header already 
+ * routes the message.
+ * 
  * @see org.springframework.ws.server.endpoint.mapping.AbstractEndpointMapping
  * @see org.springframework.ws.server.endpoint.mapping.PayloadRootQNameEndpointMapping
  * @see org.springframework.ws.server.endpoint.mapping.UriEndpointMapping
@@ -79,89 +66,80 @@ import org.xml.sax.SAXException;
  */
 public class CamelEndpointMapping extends AbstractEndpointMapping implements InitializingBean {
 
-    private static final String DOUBLE_QUOTE = "\"";
-    private Map<EndpointMappingKey, MessageEndpoint> endpoints = new ConcurrentHashMap<EndpointMappingKey, MessageEndpoint>();
+    private final Object routeTableLock = new Object();
+    private volatile RouteTable routeTable = RouteTable.EMPTY;
     private TransformerFactory transformerFactory;
-    private XmlConverter xmlConverter;
+    private XmlResourcePool xmlResourcePool;
+    private PayloadRootQNameDetector rootQNameDetector;
+    private int routingCacheSize;
+    private RoutingDecisionCache routingCache;
 
+    /**
+     * Looks up the consumer for the given message. Mapping types are consulted
+     * in a fixed order of precedence: SOAP action, URI, root QName and finally
+     * XPath result. The cheap keys come first so the payload is only inspected
+     * when no header based mapping matches.
+     */
     @Override
     protected Object getEndpointInternal(MessageContext messageContext) throws Exception {
-        for (EndpointMappingKey key : endpoints.keySet()) {
-            Object messageKey = null;
-            switch (key.getType()) {
-                case ROOT_QNAME:
-                    messageKey = getRootQName(messageContext);
-                    break;
-                case SOAP_ACTION:
-                    messageKey = getSoapAction(messageContext);
-                    break;
-                case XPATHRESULT:
-                    messageKey = getXPathResult(messageContext, key.getExpression());
-                    break;
-                case URI:
-                    messageKey = getUri();
-                    break;
-                default:
-                    throw new RuntimeCamelException("Invalid mapping type specified. Supported types are: root QName, SOAP action, XPath expression and URI");
-            }
-            if (messageKey != null && key.getLookupKey().equals(messageKey)) {
-                return endpoints.get(key);
-            }
+        EndpointMappingContext context = EndpointMappingContext.get(messageContext, routeTable, rootQNameDetector, xmlResourcePool);
+        RouteTable table = context.getRouteTable();
+        MessageEndpoint endpoint = routingCache != null ? lookupCached(table, context) : lookup(table, context);
+        if (endpoint == null) {
+            // no invocation chain will be created for this message
+            EndpointMappingContext.release(messageContext);
         }
-        return null;
+        return endpoint;
     }
 
-    @Override
-    protected final EndpointInvocationChain createEndpointInvocationChain(MessageContext messageContext, Object endpoint, EndpointInterceptor[] interceptors) {
-        for (EndpointMappingKey key : endpoints.keySet()) {
-            if (EndpointMappingType.SOAP_ACTION.equals(key.getType())) {
-                Object messageKey = getSoapAction(messageContext);
-                if (messageKey != null && key.getLookupKey().equals(messageKey)) {
-                    return new SoapEndpointInvocationChain(endpoint, interceptors);
-                    // possibly add support for SOAP actors/roles and ultimate
-                    // receiver in the future
-                }
-            }
+    private MessageEndpoint lookup(RouteTable table, EndpointMappingContext context) throws Exception {
+        MessageEndpoint endpoint = table.lookupByMessageKeys(context);
+        if (endpoint == null) {
+            endpoint = table.lookupByXPath(context);
         }
-        return super.createEndpointInvocationChain(messageContext, endpoint, interceptors);
+        return endpoint;
     }
 
-    private String getSoapAction(MessageContext messageContext) {
-        if (messageContext.getRequest() instanceof SoapMessage) {
-            SoapMessage request = (SoapMessage) messageContext.getRequest();
-            String soapAction = request.getSoapAction();
-            if (StringUtils.hasLength(soapAction) && soapAction.startsWith(DOUBLE_QUOTE) && soapAction.endsWith(DOUBLE_QUOTE)) {
-                return soapAction.substring(1, soapAction.length() - 1);
-            }
-            return soapAction;
+    private MessageEndpoint lookupCached(RouteTable table, EndpointMappingContext context) throws Exception {
+        // extract each key only when the types before it didn't route the message
+        MessageEndpoint endpoint = null;
+        if (table.hasSoapActionMappings()) {
+            endpoint = lookupCached(table, EndpointMappingType.SOAP_ACTION, context.getSoapAction());
         }
-        return null;
-    }
-
-    private String getUri() throws URISyntaxException {
-        TransportContext transportContext = TransportContextHolder.getTransportContext();
-        if (transportContext != null) {
-            WebServiceConnection webServiceConnection = transportContext.getConnection();
-            if (webServiceConnection != null) {
-                return webServiceConnection.getUri().toString();
-            }
+        if (endpoint == null && table.hasUriMappings()) {
+            endpoint = lookupCached(table, EndpointMappingType.URI, context.getUri());
         }
-        return null;
+        if (endpoint == null && table.hasRootQNameMappings()) {
+            endpoint = lookupCached(table, EndpointMappingType.ROOT_QNAME, context.getRootQName());
+        }
+        if (endpoint == null) {
+            // XPath results depend on the whole payload, these decisions can't be cached
+            endpoint = table.lookupByXPath(context);
+        }
+        return endpoint;
     }
 
-    private String getRootQName(MessageContext messageContext) throws TransformerException, XMLStreamException {
-        QName qName = PayloadRootUtils.getPayloadRootQName(messageContext.getRequest().getPayloadSource(), transformerFactory);
-        return qName != null ? qName.toString() : null;
+    private MessageEndpoint lookupCached(RouteTable table, EndpointMappingType type, String messageKey) {
+        RoutingDecisionCache.Key key = new RoutingDecisionCache.Key(type, messageKey);
+        RoutingDecisionCache.Decision decision = routingCache.get(key);
+        if (decision != null) {
+            return decision.getEndpoint();
+        }
+        MessageEndpoint endpoint = table.lookupByMessageKey(type, messageKey);
+        routingCache.put(key, endpoint, table.getVersion());
+        return endpoint;
     }
 
-    private String getXPathResult(MessageContext messageContext, XPathExpression expression) throws TransformerException, XMLStreamException, ParserConfigurationException, IOException, SAXException {
-        if (expression != null) {
-            Node domNode = xmlConverter.toDOMNode(messageContext.getRequest().getPayloadSource());
-            if (domNode != null) {
-                return expression.evaluateAsString(domNode.getFirstChild());
-            }
+    @Override
+    protected final EndpointInvocationChain createEndpointInvocationChain(MessageContext messageContext, Object endpoint, EndpointInterceptor[] interceptors) {
+        EndpointMappingContext context = EndpointMappingContext.get(messageContext, routeTable, rootQNameDetector, xmlResourcePool);
+        EndpointMappingContext.release(messageContext);
+        if (context.getRouteTable().isSoapActionMapped(context.getSoapAction())) {
+            return new SoapEndpointInvocationChain(endpoint, interceptors);
+            // possibly add support for SOAP actors/roles and ultimate
+            // receiver in the future
         }
-        return null;
+        return super.createEndpointInvocationChain(messageContext, endpoint, interceptors);
     }
 
     /**
@@ -173,7 +151,9 @@ public class CamelEndpointMapping extends AbstractEndpointMapping implements Ini
      *            consumer
      */
     public void addConsumer(EndpointMappingKey key, MessageEndpoint endpoint) {
-        endpoints.put(key, endpoint);
+        synchronized (routeTableLock) {
+            swapRouteTable(routeTable.with(key, endpoint));
+        }
     }
 
     /**
@@ -183,7 +163,76 @@ public class CamelEndpointMapping extends AbstractEndpointMapping implements Ini
      *            unique consumer key
      */
     public void removeConsumer(Object key) {
-        endpoints.remove(key);
+        if (key instanceof EndpointMappingKey) {
+            synchronized (routeTableLock) {
+                swapRouteTable(routeTable.without((EndpointMappingKey) key));
+            }
+        }
+    }
+
+    private void swapRouteTable(RouteTable table) {
+        if (table != routeTable) {
+            routeTable = table;
+            RoutingDecisionCache cache = routingCache;
+            if (cache != null) {
+                cache.invalidate(table.getVersion());
+            }
+        }
+    }
+
+    /**
+     * @return number of registered consumers
+     */
+    public int getConsumerCount() {
+        return routeTable.size();
+    }
+
+    /**
+     * Gets the version of the current set of registered consumers, which is
+     * incremented on every registration change
+     * 
+     * @return route table version
+     */
+    public long getRouteTableVersion() {
+        return routeTable.getVersion();
+    }
+
+    /**
+     * Gets the maximum number of cached routing decisions
+     * 
+     * @return cache size, 0 when caching is disabled
+     */
+    public int getRoutingCacheSize() {
+        return routingCacheSize;
+    }
+
+    /**
+     * Optional setter to enable caching of routing decisions. Decisions are
+     * cached per SOAP action, URI and root QName, including those that match
+     * no consumer. Keys are still extracted in order of precedence, so the
+     * payload isn't inspected when the SOAP action or URI routes the message.
+     * Decisions made by XPath expressions are never cached.
+     * 
+     * @param routingCacheSize
+     *            maximum number of cached decisions, 0 (default) disables
+     *            the cache
+     */
+    public void setRoutingCacheSize(int routingCacheSize) {
+        this.routingCacheSize = routingCacheSize;
+    }
+
+    /**
+     * @return number of lookups answered by the routing cache
+     */
+    public long getRoutingCacheHits() {
+        return routingCache != null ? routingCache.getHits() : 0;
+    }
+
+    /**
+     * @return number of lookups not answered by the routing cache
+     */
+    public long getRoutingCacheMisses() {
+        return routingCache != null ? routingCache.getMisses() : 0;
     }
 
     /**
@@ -205,12 +254,37 @@ public class CamelEndpointMapping extends AbstractEndpointMapping implements Ini
         this.transformerFactory = transformerFactory;
     }
 
+    /**
+     * Gets the pool of XML resources used for inspecting payloads
+     * 
+     * @return instance of XmlResourcePool
+     */
+    public XmlResourcePool getXmlResourcePool() {
+        return xmlResourcePool;
+    }
+
+    /**
+     * Optional setter to share a pool of XML resources with other beans. When
+     * not set, a pool is created for the configured TransformerFactory or the
+     * default pool is used.
+     * 
+     * @param xmlResourcePool
+     *            pool of XML resources
+     */
+    public void setXmlResourcePool(XmlResourcePool xmlResourcePool) {
+        this.xmlResourcePool = xmlResourcePool;
+    }
+
     public void afterPropertiesSet() throws Exception {
-        xmlConverter = new XmlConverter();
-        if (transformerFactory != null) {
-            xmlConverter.setTransformerFactory(transformerFactory);
-        } else {
-            transformerFactory = TransformerFactory.newInstance();
+        if (xmlResourcePool == null) {
+            xmlResourcePool = transformerFactory != null ? new XmlResourcePool(transformerFactory) : XmlResourcePool.getDefaultInstance();
+        }
+        transformerFactory = xmlResourcePool.getTransformerFactory();
+        rootQNameDetector = new PayloadRootQNameDetector(xmlResourcePool);
+        if (routingCacheSize > 0) {
+            synchronized (routeTableLock) {
+                routingCache = new RoutingDecisionCache(routingCacheSize, routeTable.getVersion());
+            }
         }
     }
 }
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+
+import org.springframework.util.StringUtils;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.context.TransportContext;
+import org.springframework.ws.transport.context.TransportContextHolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Holds the keys of a single request that {@link CamelEndpointMapping} uses
+ * for routing. Each key is extracted from the message on first use only, so
+ * the payload is parsed at most once per request no matter how many
+ * consumers are registered.
+ * 
+ * The context is kept as a {@link MessageContext} property between the
+ * endpoint lookup and the creation of the invocation chain, both of which use
+ * the {@link RouteTable} captured when the context was created.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+class EndpointMappingContext {
+
+    static final String PROPERTY_NAME = EndpointMappingContext.class.getName();
+    private static final String DOUBLE_QUOTE = "\"";
+
+    private final MessageContext messageContext;
+    private final RouteTable routeTable;
+    private final PayloadRootQNameDetector rootQNameDetector;
+    private final XmlResourcePool xmlResourcePool;
+
+    private boolean soapActionResolved;
+    private String soapAction;
+    private boolean uriResolved;
+    private String uri;
+    private boolean rootQNameResolved;
+    private String rootQName;
+    private Node payloadNode;
+    private Element payloadDocumentElement;
+    private XPathRoutingEngine xpathEngine;
+    private String[] xpathResults;
+
+    EndpointMappingContext(MessageContext messageContext, RouteTable routeTable, PayloadRootQNameDetector rootQNameDetector, XmlResourcePool xmlResourcePool) {
+        this.messageContext = messageContext;
+        this.routeTable = routeTable;
+        this.rootQNameDetector = rootQNameDetector;
+        this.xmlResourcePool = xmlResourcePool;
+    }
+
+    /**
+     * Returns the context stored on the given message, creating and storing
+     * a new one routing against the given table when none exists yet.
+     */
+    static EndpointMappingContext get(MessageContext messageContext, RouteTable routeTable, PayloadRootQNameDetector rootQNameDetector, XmlResourcePool xmlResourcePool) {
+        EndpointMappingContext context = (EndpointMappingContext) messageContext.getProperty(PROPERTY_NAME);
+        if (context == null) {
+            context = new EndpointMappingContext(messageContext, routeTable, rootQNameDetector, xmlResourcePool);
+            messageContext.setProperty(PROPERTY_NAME, context);
+        }
+        return context;
+    }
+
+    /**
+     * Removes the context from the given message so it doesn't end up as a
+     * property on the Camel exchange.
+     */
+    static void release(MessageContext messageContext) {
+        messageContext.removeProperty(PROPERTY_NAME);
+    }
+
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    public XmlResourcePool getXmlResourcePool() {
+        return xmlResourcePool;
+    }
+
+    public String getSoapAction() {
+        if (!soapActionResolved) {
+            soapAction = extractSoapAction();
+            soapActionResolved = true;
+        }
+        return soapAction;
+    }
+
+    public String getUri() throws URISyntaxException {
+        if (!uriResolved) {
+            uri = extractUri();
+            uriResolved = true;
+        }
+        return uri;
+    }
+
+    public String getRootQName() throws TransformerException, XMLStreamException {
+        if (!rootQNameResolved) {
+            QName qName = rootQNameDetector.getRootQName(messageContext.getRequest().getPayloadSource());
+            rootQName = qName != null ? qName.toString() : null;
+            rootQNameResolved = true;
+        }
+        return rootQName;
+    }
+
+    /**
+     * Returns the results of all expressions of the given engine, evaluating
+     * them on first use
+     */
+    String[] getXPathResults(XPathRoutingEngine engine) throws TransformerException, XMLStreamException, IOException, SAXException {
+        if (xpathEngine != engine) {
+            xpathResults = engine.evaluate(this);
+            xpathEngine = engine;
+        }
+        return xpathResults;
+    }
+
+    Source getPayloadSource() {
+        return messageContext.getRequest().getPayloadSource();
+    }
+
+    Node getPayloadNode() throws TransformerException, XMLStreamException, IOException, SAXException {
+        if (payloadNode == null) {
+            // single DOM shared by all XPath expressions evaluated for this request
+            payloadNode = xmlResourcePool.toDOMNode(getPayloadSource());
+        }
+        return payloadNode;
+    }
+
+    /**
+     * Returns the payload root element as the document element of its own
+     * document, so absolute paths evaluated against it resolve from the
+     * payload rather than from the SOAP envelope. A payload nested in a larger
+     * document, such as the body of a SAAJ message, is copied into a new
+     * document.
+     */
+    Element getPayloadDocumentElement() throws TransformerException, XMLStreamException, IOException, SAXException {
+        if (payloadDocumentElement == null) {
+            Node node = getPayloadNode();
+            if (node instanceof Document) {
+                node = ((Document) node).getDocumentElement();
+            } else if (node != null && !(node instanceof Element)) {
+                node = node.getFirstChild();
+                while (node != null && !(node instanceof Element)) {
+                    node = node.getNextSibling();
+                }
+            }
+            if (node == null) {
+                return null;
+            }
+            Element element = (Element) node;
+            if (element.getOwnerDocument().getDocumentElement() != element) {
+                Document document = xmlResourcePool.createDocument();
+                element = (Element) document.importNode(element, true);
+                document.appendChild(element);
+            }
+            payloadDocumentElement = element;
+        }
+        return payloadDocumentElement;
+    }
+
+    private String extractSoapAction() {
+        if (messageContext.getRequest() instanceof SoapMessage) {
+            SoapMessage request = (SoapMessage) messageContext.getRequest();
+            String soapAction = request.getSoapAction();
+            if (StringUtils.hasLength(soapAction) && soapAction.startsWith(DOUBLE_QUOTE) && soapAction.endsWith(DOUBLE_QUOTE)) {
+                return soapAction.substring(1, soapAction.length() - 1);
+            }
+            return soapAction;
+        }
+        return null;
+    }
+
+    private String extractUri() throws URISyntaxException {
+        TransportContext transportContext = TransportContextHolder.getTransportContext();
+        if (transportContext != null) {
+            WebServiceConnection webServiceConnection = transportContext.getConnection();
+            if (webServiceConnection != null) {
+                return webServiceConnection.getUri().toString();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.SpooledPayloadSource;
+import org.springframework.ws.server.endpoint.support.PayloadRootUtils;
+import org.springframework.xml.transform.StaxSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Determines the qualified name of the payload root element without
+ * transforming the payload. DOM and StAX sources are inspected directly. The
+ * payload is never consumed, as the endpoint reads it afterwards:
+ * 
+ * <ul>
+ * <li>a {@link SpooledPayloadSource} is parsed from a stream of its own</li>
+ * <li>other stream and SAX sources are parsed from the head of their stream
+ * or reader, which is reset afterwards. Streams that don't support
+ * mark/reset aren't inspected and yield no root element name.</li>
+ * <li>sources with only a system id, and other sources, fall back to
+ * {@link PayloadRootUtils}</li>
+ * </ul>
+ * 
+ * Instances are thread-safe.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+class PayloadRootQNameDetector {
+
+    /**
+     * Number of bytes or characters read ahead to find the root element
+     */
+    static final int HEAD_SIZE = 8192;
+
+    private final XmlResourcePool xmlResourcePool;
+
+    PayloadRootQNameDetector(XmlResourcePool xmlResourcePool) {
+        this.xmlResourcePool = xmlResourcePool;
+    }
+
+    /**
+     * Returns the qualified name of the root element of the given payload
+     * 
+     * @param source
+     *            payload of the request, may be <code>null</code>
+     * @return root element name, or <code>null</code> if the payload is empty
+     *         or can't be inspected without consuming it
+     */
+    public QName getRootQName(Source source) throws TransformerException, XMLStreamException {
+        if (source == null) {
+            return null;
+        }
+        if (source instanceof DOMSource) {
+            return getRootQName(((DOMSource) source).getNode());
+        }
+        if (source instanceof StaxSource) {
+            QName qName = getRootQName((StaxSource) source);
+            if (qName != null) {
+                return qName;
+            }
+        } else if (source instanceof SpooledPayloadSource) {
+            InputStream in = ((SpooledPayloadSource) source).openStream();
+            try {
+                return getRootQName(xmlResourcePool.getXMLInputFactory().createXMLStreamReader(in), false);
+            } finally {
+                close(in);
+            }
+        } else if (source instanceof SAXSource) {
+            InputSource inputSource = ((SAXSource) source).getInputSource();
+            if (inputSource != null && (inputSource.getByteStream() != null || inputSource.getCharacterStream() != null)) {
+                return getRootQName((SAXSource) source, inputSource);
+            }
+        } else if (source instanceof StreamSource) {
+            StreamSource streamSource = (StreamSource) source;
+            InputStream inputStream = streamSource.getInputStream();
+            if (inputStream != null) {
+                byte[] head = readHead(inputStream, HEAD_SIZE);
+                return head != null ? getRootQName(xmlResourcePool.getXMLInputFactory().createXMLStreamReader(new ByteArrayInputStream(head)), head.length == HEAD_SIZE) : null;
+            }
+            Reader reader = streamSource.getReader();
+            if (reader != null) {
+                char[] head = readHead(reader, HEAD_SIZE);
+                return head != null ? getRootQName(xmlResourcePool.getXMLInputFactory().createXMLStreamReader(new CharArrayReader(head)), head.length == HEAD_SIZE) : null;
+            }
+        }
+        return PayloadRootUtils.getPayloadRootQName(source, xmlResourcePool.getTransformerFactory());
+    }
+
+    private QName getRootQName(Node node) {
+        if (node instanceof Document) {
+            node = ((Document) node).getDocumentElement();
+        } else if (node != null && !(node instanceof Element)) {
+            node = node.getFirstChild();
+            while (node != null && !(node instanceof Element)) {
+                node = node.getNextSibling();
+            }
+        }
+        if (node == null) {
+            return null;
+        }
+        String localName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+        return node.getNamespaceURI() != null ? new QName(node.getNamespaceURI(), localName) : new QName(localName);
+    }
+
+    private QName getRootQName(StaxSource source) throws XMLStreamException {
+        // never advance a reader owned by the message, it's positioned for the consumer
+        XMLStreamReader streamReader = source.getXMLStreamReader();
+        if (streamReader != null && streamReader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+            return streamReader.getName();
+        }
+        XMLEventReader eventReader = source.getXMLEventReader();
+        if (eventReader != null) {
+            XMLEvent event = eventReader.peek();
+            if (event != null && event.isStartElement()) {
+                return event.asStartElement().getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pulls the given reader up to the first start element
+     * 
+     * @param truncated
+     *            whether the reader reads a truncated head of the payload,
+     *            in which case running out of input before the root element
+     *            yields <code>null</code> rather than an error
+     */
+    private QName getRootQName(XMLStreamReader streamReader, boolean truncated) throws XMLStreamException {
+        try {
+            while (streamReader.hasNext()) {
+                if (streamReader.next() == XMLStreamConstants.START_ELEMENT) {
+                    return streamReader.getName();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            if (truncated) {
+                return null;
+            }
+            throw e;
+        } finally {
+            streamReader.close();
+        }
+    }
+
+    private QName getRootQName(SAXSource source, InputSource inputSource) throws TransformerException {
+        InputSource headSource;
+        boolean truncated;
+        if (inputSource.getCharacterStream() != null) {
+            char[] head = readHead(inputSource.getCharacterStream(), HEAD_SIZE);
+            if (head == null) {
+                return null;
+            }
+            headSource = new InputSource(new CharArrayReader(head));
+            truncated = head.length == HEAD_SIZE;
+        } else {
+            byte[] head = readHead(inputSource.getByteStream(), HEAD_SIZE);
+            if (head == null) {
+                return null;
+            }
+            headSource = new InputSource(new ByteArrayInputStream(head));
+            headSource.setEncoding(inputSource.getEncoding());
+            truncated = head.length == HEAD_SIZE;
+        }
+        headSource.setSystemId(inputSource.getSystemId());
+        headSource.setPublicId(inputSource.getPublicId());
+
+        RootElementHandler handler = new RootElementHandler();
+        try {
+            xmlResourcePool.parse(source.getXMLReader(), headSource, handler);
+        } catch (RootElementFoundException e) {
+            // parsing stopped at the first start element
+        } catch (SAXException e) {
+            if (!truncated) {
+                throw new TransformerException(e);
+            }
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+        return handler.rootQName;
+    }
+
+    /**
+     * Reads up to the given number of bytes and resets the stream to where it
+     * was, or returns <code>null</code> if the stream can't be reset
+     */
+    static byte[] readHead(InputStream in, int size) throws TransformerException {
+        if (!in.markSupported()) {
+            return null;
+        }
+        byte[] buffer = new byte[size];
+        int length = 0;
+        try {
+            in.mark(size);
+            try {
+                int count;
+                while (length < size && (count = in.read(buffer, length, size - length)) != -1) {
+                    length += count;
+                }
+            } finally {
+                in.reset();
+            }
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+        byte[] head = new byte[length];
+        System.arraycopy(buffer, 0, head, 0, length);
+        return head;
+    }
+
+    /**
+     * Reads up to the given number of characters and resets the reader to
+     * where it was, or returns <code>null</code> if the reader can't be reset
+     */
+    static char[] readHead(Reader reader, int size) throws TransformerException {
+        if (!reader.markSupported()) {
+            return null;
+        }
+        char[] buffer = new char[size];
+        int length = 0;
+        try {
+            reader.mark(size);
+            try {
+                int count;
+                while (length < size && (count = reader.read(buffer, length, size - length)) != -1) {
+                    length += count;
+                }
+            } finally {
+                reader.reset();
+            }
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        }
+        char[] head = new char[length];
+        System.arraycopy(buffer, 0, head, 0, length);
+        return head;
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // read-only stream of a spooled payload
+        }
+    }
+
+    /**
+     * Records the name of the first start element and aborts parsing
+     */
+    private static final class RootElementHandler extends DefaultHandler {
+        private QName rootQName;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            String name = localName != null && localName.length() > 0 ? localName : qName;
+            rootQName = uri != null && uri.length() > 0 ? new QName(uri, name) : new QName(name);
+            throw new RootElementFoundException();
+        }
+    }
+
+    private static final class RootElementFoundException extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+}
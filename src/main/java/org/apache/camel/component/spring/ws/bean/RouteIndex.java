@@ -0,0 +1,322 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+/**
+ * Immutable map of lookup keys to consumers, implemented as a hash array
+ * mapped trie. Adding or removing a consumer copies only the path from the
+ * root to the affected entry (at most seven small nodes) and shares the rest
+ * with the original index. Registration cost and memory therefore stay flat
+ * no matter how many consumers are registered, while a lookup takes at most
+ * seven array accesses.
+ * 
+ * Keys containing a <tt>*</tt> are kept in a {@link WildcardIndex}, which is
+ * only consulted when there's no exact match.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+final class RouteIndex {
+
+    static final RouteIndex EMPTY = new RouteIndex(null, 0, WildcardIndex.EMPTY);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30;
+
+    private final Node root;
+    private final int size;
+    private final WildcardIndex wildcards;
+
+    private RouteIndex(Node root, int size, WildcardIndex wildcards) {
+        this.root = root;
+        this.size = size;
+        this.wildcards = wildcards;
+    }
+
+    /**
+     * @return the consumer registered for the given key, or else the one of
+     *         the most specific matching wildcard pattern
+     */
+    public MessageEndpoint get(String key) {
+        if (key == null) {
+            return null;
+        }
+        MessageEndpoint endpoint = root != null ? root.get(key, hash(key), 0) : null;
+        if (endpoint == null && !wildcards.isEmpty()) {
+            endpoint = wildcards.get(key);
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return a new index in which the given key, or key pattern, maps to the
+     *         given consumer
+     */
+    public RouteIndex put(String key, MessageEndpoint endpoint) {
+        if (WildcardIndex.isPattern(key)) {
+            WildcardIndex newWildcards = wildcards.put(key, endpoint);
+            return newWildcards != wildcards ? new RouteIndex(root, size, newWildcards) : this;
+        }
+        int hash = hash(key);
+        if (root == null) {
+            return new RouteIndex(BitmapNode.of(new Entry(key, hash, endpoint), 0), 1, wildcards);
+        }
+        Node newRoot = root.put(new Entry(key, hash, endpoint), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new RouteIndex(newRoot, root.get(key, hash, 0) != null ? size : size + 1, wildcards);
+    }
+
+    /**
+     * @return a new index without the given key, or key pattern, or this
+     *         index if it isn't present
+     */
+    public RouteIndex remove(String key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        if (WildcardIndex.isPattern(key)) {
+            return new RouteIndex(root, size, wildcards.remove(key));
+        }
+        return new RouteIndex(root.remove(key, hash(key), 0), size - 1, wildcards);
+    }
+
+    /**
+     * @return whether a consumer is registered for exactly the given key or
+     *         key pattern
+     */
+    public boolean containsKey(String key) {
+        if (key == null) {
+            return false;
+        }
+        if (WildcardIndex.isPattern(key)) {
+            return wildcards.containsPattern(key);
+        }
+        return root != null && root.get(key, hash(key), 0) != null;
+    }
+
+    public int size() {
+        return size + wildcards.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private static int hash(String key) {
+        // spread the bits of String.hashCode() over all trie levels
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final int hash;
+        private final MessageEndpoint endpoint;
+
+        private Entry(String key, int hash, MessageEndpoint endpoint) {
+            this.key = key;
+            this.hash = hash;
+            this.endpoint = endpoint;
+        }
+    }
+
+    private abstract static class Node {
+        abstract MessageEndpoint get(String key, int hash, int shift);
+
+        abstract Node put(Entry entry, int shift);
+
+        /* returns null when the node becomes empty */
+        abstract Node remove(String key, int hash, int shift);
+
+        static Node merge(Entry first, Entry second, int shift) {
+            if (shift > MAX_SHIFT) {
+                return new CollisionNode(new Entry[] {first, second});
+            }
+            int firstIndex = (first.hash >>> shift) & MASK;
+            int secondIndex = (second.hash >>> shift) & MASK;
+            if (firstIndex == secondIndex) {
+                return new BitmapNode(1 << firstIndex, new Object[] {merge(first, second, shift + BITS)});
+            }
+            Object[] slots = firstIndex < secondIndex ? new Object[] {first, second} : new Object[] {second, first};
+            return new BitmapNode((1 << firstIndex) | (1 << secondIndex), slots);
+        }
+    }
+
+    /**
+     * Node holding up to 32 entries or child nodes, only occupied slots take
+     * up space
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        static BitmapNode of(Entry entry, int shift) {
+            return new BitmapNode(1 << ((entry.hash >>> shift) & MASK), new Object[] {entry});
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        MessageEndpoint get(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                return entry.hash == hash && entry.key.equals(key) ? entry.endpoint : null;
+            }
+            return ((Node) slot).get(key, hash, shift + BITS);
+        }
+
+        Node put(Entry entry, int shift) {
+            int bit = 1 << ((entry.hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = entry;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Entry) {
+                Entry existing = (Entry) slot;
+                if (existing.hash == entry.hash && existing.key.equals(entry.key)) {
+                    if (existing.endpoint == entry.endpoint) {
+                        return this;
+                    }
+                    newSlot = entry;
+                } else {
+                    newSlot = merge(existing, entry, shift + BITS);
+                }
+            } else {
+                newSlot = ((Node) slot).put(entry, shift + BITS);
+                if (newSlot == slot) {
+                    return this;
+                }
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        Node remove(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                if (!(entry.hash == hash && entry.key.equals(key))) {
+                    return this;
+                }
+                newSlot = null;
+            } else {
+                newSlot = ((Node) slot).remove(key, hash, shift + BITS);
+                if (newSlot == slot) {
+                    return this;
+                }
+            }
+            if (newSlot != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[index] = newSlot;
+                return new BitmapNode(bitmap, newSlots);
+            }
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+    }
+
+    /**
+     * Node for distinct keys whose hashes are fully equal
+     */
+    private static final class CollisionNode extends Node {
+        private final Entry[] entries;
+
+        private CollisionNode(Entry[] entries) {
+            this.entries = entries;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        MessageEndpoint get(String key, int hash, int shift) {
+            int index = indexOf(key);
+            return index != -1 ? entries[index].endpoint : null;
+        }
+
+        Node put(Entry entry, int shift) {
+            int index = indexOf(entry.key);
+            Entry[] newEntries;
+            if (index != -1) {
+                if (entries[index].endpoint == entry.endpoint) {
+                    return this;
+                }
+                newEntries = entries.clone();
+                newEntries[index] = entry;
+            } else {
+                newEntries = new Entry[entries.length + 1];
+                System.arraycopy(entries, 0, newEntries, 0, entries.length);
+                newEntries[entries.length] = entry;
+            }
+            return new CollisionNode(newEntries);
+        }
+
+        Node remove(String key, int hash, int shift) {
+            int index = indexOf(key);
+            if (index == -1) {
+                return this;
+            }
+            if (entries.length == 1) {
+                return null;
+            }
+            Entry[] newEntries = new Entry[entries.length - 1];
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+            return new CollisionNode(newEntries);
+        }
+    }
+}
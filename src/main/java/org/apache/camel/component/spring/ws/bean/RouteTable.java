@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+/**
+ * Immutable snapshot of the consumers registered with a
+ * {@link CamelEndpointMapping}, indexed per mapping type. Registering or
+ * unregistering a consumer produces a new table with a higher version. The
+ * header based indexes are {@link RouteIndex} tries, so only a few nodes of
+ * the affected index are copied, independent of the number of consumers.
+ * 
+ * Since a table never changes, a request is routed against one consistent
+ * set of consumers without any locking, regardless of consumers being added
+ * or removed concurrently.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+final class RouteTable {
+
+    static final RouteTable EMPTY = new RouteTable(0, RouteIndex.EMPTY, RouteIndex.EMPTY, RouteIndex.EMPTY,
+            Collections.<EndpointMappingKey, MessageEndpoint> emptyMap());
+
+    private final long version;
+    private final RouteIndex soapActionEndpoints;
+    private final RouteIndex uriEndpoints;
+    private final RouteIndex rootQNameEndpoints;
+    private final Map<EndpointMappingKey, MessageEndpoint> xpathEndpoints;
+    private final XPathRoutingEngine xpathEngine;
+
+    private RouteTable(long version, RouteIndex soapActionEndpoints, RouteIndex uriEndpoints,
+            RouteIndex rootQNameEndpoints, Map<EndpointMappingKey, MessageEndpoint> xpathEndpoints) {
+        this.version = version;
+        this.soapActionEndpoints = soapActionEndpoints;
+        this.uriEndpoints = uriEndpoints;
+        this.rootQNameEndpoints = rootQNameEndpoints;
+        this.xpathEndpoints = xpathEndpoints;
+        this.xpathEngine = new XPathRoutingEngine(xpathEndpoints);
+    }
+
+    private RouteTable(RouteTable table, RouteIndex soapActionEndpoints, RouteIndex uriEndpoints,
+            RouteIndex rootQNameEndpoints) {
+        // header based indexes changed, the XPath engine can be shared
+        this.version = table.version + 1;
+        this.soapActionEndpoints = soapActionEndpoints;
+        this.uriEndpoints = uriEndpoints;
+        this.rootQNameEndpoints = rootQNameEndpoints;
+        this.xpathEndpoints = table.xpathEndpoints;
+        this.xpathEngine = table.xpathEngine;
+    }
+
+    /**
+     * @return a new table that routes messages matching the given key to the
+     *         given consumer
+     */
+    public RouteTable with(EndpointMappingKey key, MessageEndpoint endpoint) {
+        switch (key.getType()) {
+            case SOAP_ACTION:
+                return new RouteTable(this, soapActionEndpoints.put(key.getLookupKey(), endpoint), uriEndpoints, rootQNameEndpoints);
+            case URI:
+                return new RouteTable(this, soapActionEndpoints, uriEndpoints.put(key.getLookupKey(), endpoint), rootQNameEndpoints);
+            case ROOT_QNAME:
+                return new RouteTable(this, soapActionEndpoints, uriEndpoints, rootQNameEndpoints.put(key.getLookupKey(), endpoint));
+            case XPATHRESULT:
+                Map<EndpointMappingKey, MessageEndpoint> xpath = new LinkedHashMap<EndpointMappingKey, MessageEndpoint>(xpathEndpoints);
+                xpath.put(key, endpoint);
+                return new RouteTable(version + 1, soapActionEndpoints, uriEndpoints, rootQNameEndpoints, Collections.unmodifiableMap(xpath));
+            default:
+                throw new RuntimeCamelException("Invalid mapping type specified. Supported types are: root QName, SOAP action, XPath expression and URI");
+        }
+    }
+
+    /**
+     * @return a new table without the consumer registered for the given key,
+     *         or this table if there's no such consumer
+     */
+    public RouteTable without(EndpointMappingKey key) {
+        switch (key.getType()) {
+            case SOAP_ACTION:
+                return soapActionEndpoints.containsKey(key.getLookupKey())
+                        ? new RouteTable(this, soapActionEndpoints.remove(key.getLookupKey()), uriEndpoints, rootQNameEndpoints) : this;
+            case URI:
+                return uriEndpoints.containsKey(key.getLookupKey())
+                        ? new RouteTable(this, soapActionEndpoints, uriEndpoints.remove(key.getLookupKey()), rootQNameEndpoints) : this;
+            case ROOT_QNAME:
+                return rootQNameEndpoints.containsKey(key.getLookupKey())
+                        ? new RouteTable(this, soapActionEndpoints, uriEndpoints, rootQNameEndpoints.remove(key.getLookupKey())) : this;
+            case XPATHRESULT:
+                if (!xpathEndpoints.containsKey(key)) {
+                    return this;
+                }
+                Map<EndpointMappingKey, MessageEndpoint> xpath = new LinkedHashMap<EndpointMappingKey, MessageEndpoint>(xpathEndpoints);
+                xpath.remove(key);
+                return new RouteTable(version + 1, soapActionEndpoints, uriEndpoints, rootQNameEndpoints, Collections.unmodifiableMap(xpath));
+            default:
+                return this;
+        }
+    }
+
+    /**
+     * Looks up a consumer by SOAP action, URI and root QName, in that order
+     */
+    public MessageEndpoint lookupByMessageKeys(EndpointMappingContext context) throws Exception {
+        MessageEndpoint endpoint = null;
+        if (!soapActionEndpoints.isEmpty()) {
+            endpoint = soapActionEndpoints.get(context.getSoapAction());
+        }
+        if (endpoint == null && !uriEndpoints.isEmpty()) {
+            endpoint = uriEndpoints.get(context.getUri());
+        }
+        if (endpoint == null && !rootQNameEndpoints.isEmpty()) {
+            endpoint = rootQNameEndpoints.get(context.getRootQName());
+        }
+        return endpoint;
+    }
+
+    /**
+     * Looks up a consumer by the message key of a single header based
+     * mapping type
+     */
+    public MessageEndpoint lookupByMessageKey(EndpointMappingType type, String messageKey) {
+        switch (type) {
+            case SOAP_ACTION:
+                return soapActionEndpoints.get(messageKey);
+            case URI:
+                return uriEndpoints.get(messageKey);
+            case ROOT_QNAME:
+                return rootQNameEndpoints.get(messageKey);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Looks up a consumer by the results of the registered XPath expressions
+     */
+    public MessageEndpoint lookupByXPath(EndpointMappingContext context) throws Exception {
+        return xpathEngine.lookup(context);
+    }
+
+    public boolean isSoapActionMapped(String soapAction) {
+        return soapActionEndpoints.get(soapAction) != null;
+    }
+
+    public boolean hasSoapActionMappings() {
+        return !soapActionEndpoints.isEmpty();
+    }
+
+    public boolean hasUriMappings() {
+        return !uriEndpoints.isEmpty();
+    }
+
+    public boolean hasRootQNameMappings() {
+        return !rootQNameEndpoints.isEmpty();
+    }
+
+    public boolean hasXPathMappings() {
+        return !xpathEngine.isEmpty();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return soapActionEndpoints.size() + uriEndpoints.size() + rootQNameEndpoints.size() + xpathEndpoints.size();
+    }
+}
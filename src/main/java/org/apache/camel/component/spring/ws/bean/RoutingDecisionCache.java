@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+/**
+ * Size bounded, least recently used cache of the consumers selected by
+ * {@link CamelEndpointMapping} for a SOAP action, transport URI or payload
+ * root QName. Each mapping type is cached on its own, so a decision only
+ * requires the message keys up to the first type that routes the message.
+ * Keys that match no consumer are cached as well.
+ * 
+ * Every new {@link RouteTable} invalidates the cache. Decisions computed
+ * against an older route table are discarded instead of being stored.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+class RoutingDecisionCache {
+
+    private final Map<Key, Decision> decisions;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long version;
+
+    RoutingDecisionCache(final int maxSize, long version) {
+        this.version = version;
+        this.decisions = new LinkedHashMap<Key, Decision>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached decision, or <code>null</code> if there's none
+     */
+    public Decision get(Key key) {
+        Decision decision;
+        synchronized (this) {
+            decision = decisions.get(key);
+        }
+        if (decision != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return decision;
+    }
+
+    /**
+     * Stores the given decision unless it was made against another route
+     * table version than the current one
+     */
+    public synchronized void put(Key key, MessageEndpoint endpoint, long version) {
+        if (this.version == version) {
+            decisions.put(key, new Decision(endpoint));
+        }
+    }
+
+    /**
+     * Discards all decisions, only decisions made against the given route
+     * table version are accepted from now on
+     */
+    public synchronized void invalidate(long version) {
+        this.version = version;
+        decisions.clear();
+    }
+
+    public synchronized int size() {
+        return decisions.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Cached consumer, <code>null</code> if no consumer matched
+     */
+    static final class Decision {
+        private final MessageEndpoint endpoint;
+
+        private Decision(MessageEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public MessageEndpoint getEndpoint() {
+            return endpoint;
+        }
+    }
+
+    /**
+     * Message key of a single mapping type a decision is based on
+     */
+    static final class Key {
+        private final EndpointMappingType type;
+        private final String messageKey;
+        private final int hashCode;
+
+        Key(EndpointMappingType type, String messageKey) {
+            this.type = type;
+            this.messageKey = messageKey;
+            this.hashCode = 31 * type.hashCode() + (messageKey == null ? 0 : messageKey.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type && (messageKey == null ? other.messageKey == null : messageKey.equals(other.messageKey));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+/**
+ * Immutable character trie of lookup key patterns in which <tt>*</tt> matches
+ * any sequence of characters, e.g. <tt>{http://acme.com/orders/*}*</tt>.
+ * 
+ * A lookup runs the trie as a nondeterministic automaton: it tracks the set
+ * of nodes reachable after each character of the key, without backtracking.
+ * Its cost is therefore bounded by the length of the key times the number of
+ * nodes in the trie, no matter how many wildcards the patterns contain. When
+ * several patterns match, the one with the most literal characters wins,
+ * then the one with the longest literal prefix, then the one registered
+ * first.
+ * 
+ * Wildcard patterns are expected to be few, the trie is rebuilt whenever a
+ * pattern is added or removed.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+final class WildcardIndex {
+
+    static final char WILDCARD = '*';
+    static final WildcardIndex EMPTY = new WildcardIndex(Collections.<String, MessageEndpoint> emptyMap());
+
+    private final Map<String, MessageEndpoint> patterns;
+    private final Node root;
+    private final int nodeCount;
+
+    private WildcardIndex(Map<String, MessageEndpoint> patterns) {
+        this.patterns = patterns;
+        this.root = new Node();
+        int order = 0;
+        for (Map.Entry<String, MessageEndpoint> entry : patterns.entrySet()) {
+            root.add(entry.getKey(), 0, 0, -1, order++, entry.getValue());
+        }
+        this.nodeCount = root.number(0);
+    }
+
+    /**
+     * @return whether the given lookup key contains a wildcard
+     */
+    static boolean isPattern(String lookupKey) {
+        return lookupKey != null && lookupKey.indexOf(WILDCARD) != -1;
+    }
+
+    public WildcardIndex put(String pattern, MessageEndpoint endpoint) {
+        if (patterns.get(pattern) == endpoint) {
+            return this;
+        }
+        Map<String, MessageEndpoint> copy = new LinkedHashMap<String, MessageEndpoint>(patterns);
+        copy.put(pattern, endpoint);
+        return new WildcardIndex(copy);
+    }
+
+    public WildcardIndex remove(String pattern) {
+        if (!patterns.containsKey(pattern)) {
+            return this;
+        }
+        Map<String, MessageEndpoint> copy = new LinkedHashMap<String, MessageEndpoint>(patterns);
+        copy.remove(pattern);
+        return copy.isEmpty() ? EMPTY : new WildcardIndex(copy);
+    }
+
+    public boolean containsPattern(String pattern) {
+        return patterns.containsKey(pattern);
+    }
+
+    /**
+     * @return the consumer of the most specific pattern matching the given
+     *         key, or <code>null</code> if no pattern matches
+     */
+    public MessageEndpoint get(String key) {
+        if (key == null || patterns.isEmpty()) {
+            return null;
+        }
+        // two state sets swapped after every character, and the ids of the
+        // nodes in the current set
+        List<Node> states = new ArrayList<Node>();
+        List<Node> nextStates = new ArrayList<Node>();
+        BitSet entered = new BitSet(nodeCount);
+        enter(root, states, entered);
+        for (int i = 0; i < key.length() && !states.isEmpty(); i++) {
+            char c = key.charAt(i);
+            for (Node state : states) {
+                entered.clear(state.id);
+            }
+            for (Node state : states) {
+                Node child = state.child(c);
+                if (child != null) {
+                    enter(child, nextStates, entered);
+                }
+                if (state.loops) {
+                    // a wildcard consumes any character
+                    enter(state, nextStates, entered);
+                }
+            }
+            List<Node> swap = states;
+            states = nextStates;
+            nextStates = swap;
+            nextStates.clear();
+        }
+        Node best = null;
+        for (Node state : states) {
+            if (state.endpoint != null && (best == null || state.isMoreSpecificThan(best))) {
+                best = state;
+            }
+        }
+        return best != null ? best.endpoint : null;
+    }
+
+    /**
+     * Adds the given node to the set of states, along with the node behind
+     * its wildcard which may match the empty sequence
+     */
+    private static void enter(Node node, List<Node> states, BitSet entered) {
+        while (node != null && !entered.get(node.id)) {
+            entered.set(node.id);
+            states.add(node);
+            node = node.wildcard;
+        }
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    private static final class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        /* node reached by consuming a wildcard */
+        private Node wildcard;
+        /* whether this node is reached by a wildcard, which repeats */
+        private boolean loops;
+        private int id;
+        private MessageEndpoint endpoint;
+        /* specificity of the pattern ending at this node */
+        private int literals;
+        private int literalPrefix;
+        private int order;
+
+        void add(String pattern, int position, int literalCount, int prefixLength, int patternOrder, MessageEndpoint value) {
+            if (position == pattern.length()) {
+                endpoint = value;
+                literals = literalCount;
+                literalPrefix = prefixLength != -1 ? prefixLength : literalCount;
+                order = patternOrder;
+                return;
+            }
+            char c = pattern.charAt(position);
+            if (c == WILDCARD) {
+                if (wildcard == null) {
+                    wildcard = new Node();
+                    wildcard.loops = true;
+                }
+                // consecutive wildcards are equivalent to a single one
+                int next = position + 1;
+                while (next < pattern.length() && pattern.charAt(next) == WILDCARD) {
+                    next++;
+                }
+                wildcard.add(pattern, next, literalCount, prefixLength != -1 ? prefixLength : literalCount, patternOrder, value);
+                return;
+            }
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                char[] newLabels = new char[labels.length + 1];
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(labels, 0, newLabels, 0, labels.length);
+                System.arraycopy(children, 0, newChildren, 0, children.length);
+                newLabels[labels.length] = c;
+                newChildren[children.length] = child;
+                labels = newLabels;
+                children = newChildren;
+            }
+            child.add(pattern, position + 1, literalCount + 1, prefixLength, patternOrder, value);
+        }
+
+        /**
+         * Numbers this node and its descendants from the given id on
+         * 
+         * @return the next free id
+         */
+        int number(int next) {
+            id = next++;
+            for (Node child : children) {
+                next = child.number(next);
+            }
+            return wildcard != null ? wildcard.number(next) : next;
+        }
+
+        Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        boolean isMoreSpecificThan(Node other) {
+            if (literals != other.literals) {
+                return literals > other.literals;
+            }
+            if (literalPrefix != other.literalPrefix) {
+                return literalPrefix > other.literalPrefix;
+            }
+            return order < other.order;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.springframework.xml.namespace.SimpleNamespaceContext;
+import org.springframework.xml.xpath.NodeMapper;
+import org.springframework.xml.xpath.XPathException;
+import org.springframework.xml.xpath.XPathExpression;
+import org.springframework.xml.xpath.XPathParseException;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Cache of compiled XPath expressions, keyed by expression text and namespace
+ * bindings, so endpoints sharing an expression also share its compiled form.
+ * 
+ * JAXP XPath objects aren't thread-safe. The expressions handed out by this
+ * cache therefore compile a private JAXP expression for every thread that
+ * evaluates them, which is reused for all subsequent evaluations by that
+ * thread. Concurrent evaluation never recompiles nor locks.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public class XPathExpressionCache {
+
+    private final ConcurrentMap<Key, XPathExpression> expressions = new ConcurrentHashMap<Key, XPathExpression>();
+
+    /**
+     * Returns the compiled form of the given expression
+     * 
+     * @param expression
+     *            XPath expression
+     * @param namespaces
+     *            prefix to namespace URI bindings used by the expression, may
+     *            be <code>null</code>
+     * @return thread-safe compiled expression
+     * @throws XPathException
+     *             when the expression can't be compiled
+     */
+    public XPathExpression getExpression(String expression, Map<String, String> namespaces) {
+        Key key = new Key(expression, namespaces);
+        XPathExpression compiled = expressions.get(key);
+        if (compiled == null) {
+            XPathExpression newlyCompiled = new ThreadLocalXPathExpression(expression, namespaces);
+            compiled = expressions.putIfAbsent(key, newlyCompiled);
+            if (compiled == null) {
+                compiled = newlyCompiled;
+            }
+        }
+        return compiled;
+    }
+
+    public int size() {
+        return expressions.size();
+    }
+
+    /**
+     * Expression text and namespace bindings, compared as a map rather than by
+     * their string form which is ambiguous when URIs contain separators
+     */
+    private static final class Key {
+        private final String expression;
+        private final Map<String, String> namespaces;
+        private final int hashCode;
+
+        private Key(String expression, Map<String, String> namespaces) {
+            this.expression = expression;
+            this.namespaces = namespaces != null ? new HashMap<String, String>(namespaces) : Collections.<String, String> emptyMap();
+            this.hashCode = 31 * expression.hashCode() + this.namespaces.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return expression.equals(other.expression) && namespaces.equals(other.namespaces);
+        }
+    }
+
+    /**
+     * {@link XPathExpression} that evaluates through a JAXP expression
+     * compiled once per thread
+     */
+    private static final class ThreadLocalXPathExpression implements XPathExpression {
+        private final String expression;
+        private final Map<String, String> namespaces;
+        private final ThreadLocal<javax.xml.xpath.XPathExpression> compiled = new ThreadLocal<javax.xml.xpath.XPathExpression>() {
+            @Override
+            protected javax.xml.xpath.XPathExpression initialValue() {
+                return compile();
+            }
+        };
+
+        private ThreadLocalXPathExpression(String expression, Map<String, String> namespaces) {
+            this.expression = expression;
+            this.namespaces = namespaces != null ? new HashMap<String, String>(namespaces) : Collections.<String, String> emptyMap();
+            // fail fast on invalid expressions, the result is reused by the calling thread
+            compiled.set(compile());
+        }
+
+        private javax.xml.xpath.XPathExpression compile() {
+            XPath xpath = XPathFactory.newInstance().newXPath();
+            if (!namespaces.isEmpty()) {
+                SimpleNamespaceContext namespaceContext = new SimpleNamespaceContext();
+                namespaceContext.setBindings(namespaces);
+                xpath.setNamespaceContext(namespaceContext);
+            }
+            try {
+                return xpath.compile(expression);
+            } catch (XPathExpressionException e) {
+                throw new XPathParseException("Could not compile [" + expression + "] to a XPathExpression: " + e.getMessage(), e);
+            }
+        }
+
+        private Object evaluate(Node node, QName returnType) {
+            try {
+                return compiled.get().evaluate(node, returnType);
+            } catch (XPathExpressionException e) {
+                throw new XPathException("Could not evaluate XPath expression [" + expression + "]: " + e.getMessage(), e);
+            }
+        }
+
+        public boolean evaluateAsBoolean(Node node) {
+            return ((Boolean) evaluate(node, XPathConstants.BOOLEAN)).booleanValue();
+        }
+
+        public Node evaluateAsNode(Node node) {
+            return (Node) evaluate(node, XPathConstants.NODE);
+        }
+
+        public List evaluateAsNodeList(Node node) {
+            NodeList nodeList = (NodeList) evaluate(node, XPathConstants.NODESET);
+            List<Node> nodes = new ArrayList<Node>(nodeList.getLength());
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                nodes.add(nodeList.item(i));
+            }
+            return nodes;
+        }
+
+        public double evaluateAsNumber(Node node) {
+            return ((Double) evaluate(node, XPathConstants.NUMBER)).doubleValue();
+        }
+
+        public String evaluateAsString(Node node) {
+            return (String) evaluate(node, XPathConstants.STRING);
+        }
+
+        public Object evaluateAsObject(Node node, NodeMapper nodeMapper) {
+            Node result = evaluateAsNode(node);
+            return result != null ? nodeMapper.mapNode(result, 0) : null;
+        }
+
+        public List evaluate(Node node, NodeMapper nodeMapper) {
+            NodeList nodeList = (NodeList) evaluate(node, XPathConstants.NODESET);
+            List<Object> results = new ArrayList<Object>(nodeList.getLength());
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                results.add(nodeMapper.mapNode(nodeList.item(i), i));
+            }
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,567 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.SpooledPayloadSource;
+import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+import org.springframework.xml.transform.StaxSource;
+import org.springframework.xml.xpath.XPathExpression;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Evaluates the XPath expressions of all <tt>springws:xpathresult:</tt>
+ * consumers registered with a {@link CamelEndpointMapping}.
+ * 
+ * Expressions consisting of simple location paths, such as
+ * <tt>/GetQuote/symbol</tt>, <tt>//symbol</tt> or <tt>//q:symbol</tt> with
+ * a bound prefix, are compiled into a streaming matcher. All of them are
+ * evaluated together in a single pass over the payload which stops as soon as
+ * every expression has a result. Stream and SAX payloads are streamed over
+ * the first {@link #STREAM_HEAD_SIZE} bytes or characters, after which their
+ * stream or reader is reset. Only when that head doesn't settle every
+ * expression, or the stream can't be reset, is a DOM built. Any other
+ * expression is evaluated by the XPath engine on one DOM shared by all
+ * expressions of the request.
+ * 
+ * Both evaluate against the payload as if it were a document on its own: the
+ * XPath engine gets the payload root element as the document element of its
+ * own document, so an absolute path such as <tt>/GetQuote/symbol</tt>
+ * resolves from the payload rather than from the SOAP envelope whether it's
+ * streamed or not.
+ * 
+ * Instances are immutable, a new engine is created whenever the registered
+ * consumers change.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+class XPathRoutingEngine {
+
+    /**
+     * Number of bytes or characters of a stream payload streamed over before
+     * falling back to a DOM
+     */
+    static final int STREAM_HEAD_SIZE = 64 * 1024;
+
+    private final Route[] routes;
+    private final Route[] streamingRoutes;
+    private final Route[] domRoutes;
+
+    /**
+     * @param endpoints
+     *            XPath consumers, in order of precedence
+     */
+    XPathRoutingEngine(Map<EndpointMappingKey, MessageEndpoint> endpoints) {
+        // group consumers sharing the same expression so it's evaluated once
+        Map<Object, Route> routesByExpression = new LinkedHashMap<Object, Route>();
+        for (Map.Entry<EndpointMappingKey, MessageEndpoint> entry : endpoints.entrySet()) {
+            EndpointMappingKey key = entry.getKey();
+            // compare the bindings as a map, their string form is ambiguous
+            Object expressionKey = key.getExpressionText() != null ? Arrays.<Object> asList(key.getExpressionText(), key.getNamespaces()) : key.getExpression();
+            Route route = routesByExpression.get(expressionKey);
+            if (route == null) {
+                route = new Route(routesByExpression.size(), key.getExpression(), Path.compile(key.getExpressionText(), key.getNamespaces()));
+                routesByExpression.put(expressionKey, route);
+            }
+            route.endpoints.put(key.getLookupKey(), entry.getValue());
+        }
+        List<Route> streaming = new ArrayList<Route>();
+        List<Route> dom = new ArrayList<Route>();
+        for (Route route : routesByExpression.values()) {
+            if (route.path != null) {
+                streaming.add(route);
+            } else if (route.expression != null) {
+                dom.add(route);
+            }
+        }
+        this.routes = routesByExpression.values().toArray(new Route[routesByExpression.size()]);
+        this.streamingRoutes = streaming.toArray(new Route[streaming.size()]);
+        this.domRoutes = dom.toArray(new Route[dom.size()]);
+    }
+
+    public boolean isEmpty() {
+        return routes.length == 0;
+    }
+
+    /**
+     * Finds the consumer whose lookup key equals the result of its
+     * expression for the message of the given context
+     */
+    public MessageEndpoint lookup(EndpointMappingContext context) throws TransformerException, XMLStreamException, IOException, SAXException {
+        if (routes.length == 0) {
+            return null;
+        }
+        String[] results = context.getXPathResults(this);
+        for (Route route : routes) {
+            String result = results[route.index];
+            if (result != null) {
+                MessageEndpoint endpoint = route.endpoints.get(result);
+                if (endpoint != null) {
+                    return endpoint;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates all registered expressions against the payload of the given
+     * context.
+     * 
+     * @return the results, indexed by route
+     */
+    String[] evaluate(EndpointMappingContext context) throws TransformerException, XMLStreamException, IOException, SAXException {
+        String[] results = new String[routes.length];
+        if (domRoutes.length > 0) {
+            // a DOM is needed anyway, so stream over that instead of parsing twice
+            Element element = context.getPayloadDocumentElement();
+            if (element != null) {
+                for (Route route : domRoutes) {
+                    results[route.index] = route.expression.evaluateAsString(element);
+                }
+                if (streamingRoutes.length > 0) {
+                    Matcher matcher = new Matcher(streamingRoutes, results);
+                    walk(element, matcher);
+                    matcher.endDocument();
+                }
+            }
+        } else if (streamingRoutes.length > 0) {
+            Source source = context.getPayloadSource();
+            if (source != null) {
+                stream(source, results, context);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Streams over a DOM payload directly, over a spooled payload through a
+     * stream of its own and over the reader of a StAX payload. Stream and SAX
+     * payloads belong to the message, which the endpoint reads afterwards, so
+     * only their head is streamed over and their stream or reader is reset.
+     * When that doesn't settle every path the shared DOM is walked instead.
+     */
+    private void stream(Source source, String[] results, EndpointMappingContext context) throws TransformerException, XMLStreamException, IOException, SAXException {
+        Matcher matcher = new Matcher(streamingRoutes, results);
+        if (source instanceof DOMSource) {
+            walk(((DOMSource) source).getNode(), matcher);
+        } else if (source instanceof SpooledPayloadSource) {
+            InputStream in = ((SpooledPayloadSource) source).openStream();
+            try {
+                pull(context.getXmlResourcePool().getXMLInputFactory().createXMLStreamReader(in), matcher, true);
+            } finally {
+                in.close();
+            }
+        } else if (!streamHead(source, matcher, context.getXmlResourcePool().getXMLInputFactory())) {
+            // start over on the DOM, discarding what the head did settle
+            for (Route route : streamingRoutes) {
+                results[route.index] = null;
+            }
+            matcher = new Matcher(streamingRoutes, results);
+            walk(context.getPayloadNode(), matcher);
+        }
+        matcher.endDocument();
+    }
+
+    /**
+     * Streams over the reader of a StAX payload, or over the head of a
+     * stream or SAX payload without consuming it
+     * 
+     * @return whether every path was settled, <code>false</code> if the
+     *         payload has to be evaluated as a DOM
+     */
+    private boolean streamHead(Source source, Matcher matcher, XMLInputFactory inputFactory) throws TransformerException, XMLStreamException {
+        if (source instanceof StaxSource) {
+            // the reader can't be reset, but building a DOM would consume it all the same
+            XMLStreamReader streamReader = ((StaxSource) source).getXMLStreamReader();
+            if (streamReader == null) {
+                return false;
+            }
+            pull(streamReader, matcher, false);
+            return true;
+        }
+        InputStream inputStream = null;
+        Reader reader = null;
+        String encoding = null;
+        if (source instanceof StreamSource) {
+            inputStream = ((StreamSource) source).getInputStream();
+            reader = inputStream == null ? ((StreamSource) source).getReader() : null;
+        } else if (source instanceof SAXSource && ((SAXSource) source).getInputSource() != null) {
+            InputSource inputSource = ((SAXSource) source).getInputSource();
+            reader = inputSource.getCharacterStream();
+            inputStream = reader == null ? inputSource.getByteStream() : null;
+            encoding = inputSource.getEncoding();
+        }
+        if (inputStream != null) {
+            byte[] head = PayloadRootQNameDetector.readHead(inputStream, STREAM_HEAD_SIZE);
+            if (head == null) {
+                return false;
+            }
+            InputStream in = new ByteArrayInputStream(head);
+            return pullHead(encoding != null ? inputFactory.createXMLStreamReader(in, encoding) : inputFactory.createXMLStreamReader(in), matcher, head.length == STREAM_HEAD_SIZE);
+        }
+        if (reader != null) {
+            char[] head = PayloadRootQNameDetector.readHead(reader, STREAM_HEAD_SIZE);
+            if (head == null) {
+                return false;
+            }
+            return pullHead(inputFactory.createXMLStreamReader(new CharArrayReader(head)), matcher, head.length == STREAM_HEAD_SIZE);
+        }
+        return false;
+    }
+
+    /**
+     * @param truncated
+     *            whether the reader reads a truncated head of the payload
+     * @return whether every path was settled
+     */
+    private boolean pullHead(XMLStreamReader streamReader, Matcher matcher, boolean truncated) throws XMLStreamException {
+        try {
+            pull(streamReader, matcher, true);
+        } catch (XMLStreamException e) {
+            // running out of input before the end of a truncated head
+            if (!truncated) {
+                throw e;
+            }
+        }
+        return !truncated || matcher.isDone();
+    }
+
+    private void walk(Node node, Matcher matcher) {
+        if (node == null || matcher.isDone()) {
+            return;
+        }
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                String localName = node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+                matcher.startElement(node.getNamespaceURI(), localName);
+                walkChildren(node, matcher);
+                matcher.endElement();
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                matcher.characters(node.getNodeValue());
+                break;
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                walkChildren(node, matcher);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void walkChildren(Node node, Matcher matcher) {
+        for (Node child = node.getFirstChild(); child != null && !matcher.isDone(); child = child.getNextSibling()) {
+            walk(child, matcher);
+        }
+    }
+
+    /**
+     * Pulls events from the current event of the given reader onwards
+     * 
+     * @param close
+     *            whether to close the reader afterwards, readers of the
+     *            message are left open
+     */
+    private void pull(XMLStreamReader streamReader, Matcher matcher, boolean close) throws XMLStreamException {
+        try {
+            int event = streamReader.getEventType();
+            while (!matcher.isDone()) {
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        matcher.startElement(streamReader.getNamespaceURI(), streamReader.getLocalName());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        matcher.endElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        matcher.characters(streamReader.getTextCharacters(), streamReader.getTextStart(), streamReader.getTextLength());
+                        break;
+                    default:
+                        break;
+                }
+                if (!streamReader.hasNext()) {
+                    break;
+                }
+                event = streamReader.next();
+            }
+        } finally {
+            if (close) {
+                streamReader.close();
+            }
+        }
+    }
+
+    /**
+     * Expression shared by one or more consumers
+     */
+    private static final class Route {
+        private final int index;
+        private final XPathExpression expression;
+        private final Path path;
+        private final Map<String, MessageEndpoint> endpoints = new HashMap<String, MessageEndpoint>();
+
+        private Route(int index, XPathExpression expression, Path path) {
+            this.index = index;
+            this.expression = expression;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Location path made up of child (<tt>/</tt>) and descendant
+     * (<tt>//</tt>) steps with plain name tests.
+     */
+    static final class Path {
+        private static final int MAX_STEPS = 62;
+
+        private final Step[] steps;
+
+        private Path(Step[] steps) {
+            this.steps = steps;
+        }
+
+        /**
+         * Compiles the given expression
+         * 
+         * @param namespaces
+         *            bindings of the prefixes used in name tests, may be
+         *            <code>null</code>
+         * @return the path, or <code>null</code> if the expression isn't an
+         *         absolute location path that can be evaluated while streaming
+         */
+        static Path compile(String expression, Map<String, String> namespaces) {
+            if (expression == null) {
+                return null;
+            }
+            String path = expression.trim();
+            if (!path.startsWith("/")) {
+                // relative paths depend on the context node, leave them to XPath
+                return null;
+            }
+            List<Step> steps = new ArrayList<Step>();
+            int position = 0;
+            while (position < path.length()) {
+                boolean descendant = path.startsWith("//", position);
+                position += descendant ? 2 : 1;
+                int end = path.indexOf('/', position);
+                if (end == -1) {
+                    end = path.length();
+                }
+                Step step = Step.compile(path.substring(position, end), descendant, namespaces);
+                if (step == null || steps.size() == MAX_STEPS) {
+                    return null;
+                }
+                steps.add(step);
+                position = end;
+            }
+            return steps.isEmpty() ? null : new Path(steps.toArray(new Step[steps.size()]));
+        }
+    }
+
+    private static final class Step {
+        private final boolean descendant;
+        /* null matches any namespace */
+        private final String namespaceUri;
+        /* null matches any local name */
+        private final String localName;
+
+        private Step(boolean descendant, String namespaceUri, String localName) {
+            this.descendant = descendant;
+            this.namespaceUri = namespaceUri;
+            this.localName = localName;
+        }
+
+        static Step compile(String nameTest, boolean descendant, Map<String, String> namespaces) {
+            if ("*".equals(nameTest)) {
+                return new Step(descendant, null, null);
+            }
+            String namespaceUri = "";
+            String localName = nameTest;
+            int colon = nameTest.indexOf(':');
+            if (colon != -1) {
+                String prefix = nameTest.substring(0, colon);
+                namespaceUri = namespaces != null ? namespaces.get(prefix) : null;
+                if (namespaceUri == null || !isNCName(prefix)) {
+                    return null;
+                }
+                localName = nameTest.substring(colon + 1);
+                if ("*".equals(localName)) {
+                    return new Step(descendant, namespaceUri, null);
+                }
+            }
+            // anything beyond a plain name test (predicates, axes, functions) isn't supported
+            return isNCName(localName) ? new Step(descendant, namespaceUri, localName) : null;
+        }
+
+        private static boolean isNCName(String name) {
+            if (name.length() == 0 || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+                return false;
+            }
+            for (int i = 1; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(String elementNamespaceUri, String elementLocalName) {
+            if (localName != null && !localName.equals(elementLocalName)) {
+                return false;
+            }
+            return namespaceUri == null || namespaceUri.equals(elementNamespaceUri != null ? elementNamespaceUri : "");
+        }
+    }
+
+    /**
+     * Receives the events of a single pass over the payload and evaluates all
+     * streaming paths at once. For every open element it tracks, per path, the
+     * steps that have been matched up to and including that element.
+     */
+    private static final class Matcher {
+        private final Route[] routes;
+        private final String[] results;
+        private final List<long[]> matched = new ArrayList<long[]>();
+        private final List<long[]> matchedByAncestors = new ArrayList<long[]>();
+        private final StringBuilder[] captures;
+        private final int[] captureDepths;
+        private int pending;
+        private int depth;
+
+        Matcher(Route[] routes, String[] results) {
+            this.routes = routes;
+            this.results = results;
+            this.captures = new StringBuilder[routes.length];
+            this.captureDepths = new int[routes.length];
+            this.pending = routes.length;
+            // the document node has matched no steps yet
+            long[] document = new long[routes.length];
+            for (int i = 0; i < document.length; i++) {
+                document[i] = 1L;
+            }
+            matched.add(document);
+            matchedByAncestors.add(document);
+        }
+
+        boolean isDone() {
+            return pending == 0;
+        }
+
+        void startElement(String namespaceUri, String localName) {
+            long[] parentMatched = matched.get(depth);
+            long[] parentMatchedByAncestors = matchedByAncestors.get(depth);
+            long[] elementMatched = new long[routes.length];
+            long[] elementMatchedByAncestors = new long[routes.length];
+            depth++;
+            for (int i = 0; i < routes.length; i++) {
+                if (results[routes[i].index] != null || captures[i] != null) {
+                    continue;
+                }
+                Step[] steps = routes[i].path.steps;
+                long states = 0;
+                for (int k = 0; k < steps.length; k++) {
+                    long candidates = steps[k].descendant ? parentMatchedByAncestors[i] : parentMatched[i];
+                    if ((candidates & (1L << k)) != 0 && steps[k].matches(namespaceUri, localName)) {
+                        states |= 1L << (k + 1);
+                    }
+                }
+                elementMatched[i] = states;
+                elementMatchedByAncestors[i] = parentMatchedByAncestors[i] | states;
+                if ((states & (1L << steps.length)) != 0) {
+                    // first match in document order, its string value is the result
+                    captures[i] = new StringBuilder();
+                    captureDepths[i] = depth;
+                }
+            }
+            if (matched.size() > depth) {
+                matched.set(depth, elementMatched);
+                matchedByAncestors.set(depth, elementMatchedByAncestors);
+            } else {
+                matched.add(elementMatched);
+                matchedByAncestors.add(elementMatchedByAncestors);
+            }
+        }
+
+        void endElement() {
+            for (int i = 0; i < routes.length; i++) {
+                if (captures[i] != null && captureDepths[i] == depth) {
+                    results[routes[i].index] = captures[i].toString();
+                    captures[i] = null;
+                    pending--;
+                }
+            }
+            depth--;
+        }
+
+        void characters(char[] ch, int start, int length) {
+            for (StringBuilder capture : captures) {
+                if (capture != null) {
+                    capture.append(ch, start, length);
+                }
+            }
+        }
+
+        void characters(String text) {
+            for (StringBuilder capture : captures) {
+                if (capture != null && text != null) {
+                    capture.append(text);
+                }
+            }
+        }
+
+        void endDocument() {
+            // the string value of an empty node-set is the empty string
+            for (Route route : routes) {
+                if (results[route.index] == null) {
+                    results[route.index] = "";
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Thread-safe pool of the XML machinery used for handling webservice
+ * payloads, shared by the endpoint mapping, consumers and producers.
+ * 
+ * Factories are created once and shared, as they're thread-safe once
+ * configured. Transformers, DocumentBuilders and XMLReaders aren't, so each
+ * thread keeps one idle instance of each which is reset and reused between
+ * calls. A nested call on the same thread gets a fresh instance rather than
+ * the one in use.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+public class XmlResourcePool {
+
+    private static final XmlResourcePool DEFAULT_INSTANCE = new XmlResourcePool();
+    private static final ContentHandler NOOP_HANDLER = new DefaultHandler();
+
+    private final TransformerFactory transformerFactory;
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final SAXParserFactory parserFactory;
+    private final XMLInputFactory inputFactory;
+    private final XMLOutputFactory outputFactory;
+
+    private final ThreadLocal<Transformer> idleTransformer = new ThreadLocal<Transformer>();
+    private final ThreadLocal<DocumentBuilder> idleDocumentBuilder = new ThreadLocal<DocumentBuilder>();
+    private final ThreadLocal<XMLReader> idleXMLReader = new ThreadLocal<XMLReader>();
+
+    public XmlResourcePool() {
+        this(null);
+    }
+
+    /**
+     * @param transformerFactory
+     *            factory to create Transformers with, or <code>null</code> to
+     *            use the JAXP default
+     */
+    public XmlResourcePool(TransformerFactory transformerFactory) {
+        this.transformerFactory = transformerFactory != null ? transformerFactory : TransformerFactory.newInstance();
+        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        this.documentBuilderFactory.setNamespaceAware(true);
+        this.parserFactory = SAXParserFactory.newInstance();
+        this.parserFactory.setNamespaceAware(true);
+        this.inputFactory = XMLInputFactory.newInstance();
+        this.outputFactory = XMLOutputFactory.newInstance();
+    }
+
+    /**
+     * Returns the pool shared by all endpoints that don't configure their own
+     * TransformerFactory
+     */
+    public static XmlResourcePool getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+    }
+
+    public TransformerFactory getTransformerFactory() {
+        return transformerFactory;
+    }
+
+    public XMLInputFactory getXMLInputFactory() {
+        return inputFactory;
+    }
+
+    public XMLOutputFactory getXMLOutputFactory() {
+        return outputFactory;
+    }
+
+    /**
+     * Copies the given source to the given result using a pooled identity
+     * Transformer. Does nothing when the source is <code>null</code>.
+     */
+    public void transform(Source source, Result result) throws TransformerException {
+        if (source == null) {
+            return;
+        }
+        Transformer transformer = acquireTransformer();
+        try {
+            transformer.transform(source, result);
+        } finally {
+            releaseTransformer(transformer);
+        }
+    }
+
+    /**
+     * Converts the given source to a DOM node. DOM sources are returned as-is,
+     * streams are parsed with a pooled DocumentBuilder and other sources are
+     * transformed into a new document.
+     */
+    public Node toDOMNode(Source source) throws TransformerException {
+        if (source == null) {
+            return null;
+        }
+        if (source instanceof DOMSource) {
+            return ((DOMSource) source).getNode();
+        }
+        InputSource inputSource = source instanceof StreamSource ? toInputSource((StreamSource) source) : null;
+        if (inputSource != null) {
+            DocumentBuilder documentBuilder = acquireDocumentBuilder();
+            try {
+                return documentBuilder.parse(inputSource);
+            } catch (SAXException e) {
+                throw new TransformerException(e);
+            } catch (IOException e) {
+                throw new TransformerException(e);
+            } finally {
+                releaseDocumentBuilder(documentBuilder);
+            }
+        }
+        DOMResult result = new DOMResult(createDocument());
+        transform(source, result);
+        return result.getNode();
+    }
+
+    /**
+     * Creates a new, empty DOM document
+     */
+    public Document createDocument() throws TransformerException {
+        DocumentBuilder documentBuilder = acquireDocumentBuilder();
+        try {
+            return documentBuilder.newDocument();
+        } finally {
+            releaseDocumentBuilder(documentBuilder);
+        }
+    }
+
+    /**
+     * Parses the given input, reporting its content to the given handler
+     * 
+     * @param xmlReader
+     *            reader to parse with, e.g. the reader of a {@link SAXSource},
+     *            or <code>null</code> to use a pooled namespace aware reader
+     */
+    public void parse(XMLReader xmlReader, InputSource inputSource, ContentHandler handler) throws SAXException, IOException {
+        if (xmlReader != null) {
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(inputSource);
+            return;
+        }
+        XMLReader pooledReader = acquireXMLReader();
+        try {
+            pooledReader.setContentHandler(handler);
+            pooledReader.parse(inputSource);
+        } finally {
+            releaseXMLReader(pooledReader);
+        }
+    }
+
+    /**
+     * Creates an InputSource for the given stream source, or returns
+     * <code>null</code> if it has neither a stream, reader nor system id
+     */
+    public static InputSource toInputSource(StreamSource source) {
+        InputSource inputSource = null;
+        InputStream inputStream = source.getInputStream();
+        Reader reader = inputStream == null ? source.getReader() : null;
+        if (inputStream != null) {
+            inputSource = new InputSource(inputStream);
+        } else if (reader != null) {
+            inputSource = new InputSource(reader);
+        } else if (source.getSystemId() != null) {
+            inputSource = new InputSource(source.getSystemId());
+        }
+        if (inputSource != null) {
+            inputSource.setSystemId(source.getSystemId());
+            inputSource.setPublicId(source.getPublicId());
+        }
+        return inputSource;
+    }
+
+    Transformer acquireTransformer() throws TransformerException {
+        Transformer transformer = idleTransformer.get();
+        if (transformer == null) {
+            // factories aren't guaranteed to be thread-safe
+            synchronized (transformerFactory) {
+                return transformerFactory.newTransformer();
+            }
+        }
+        idleTransformer.set(null);
+        return transformer;
+    }
+
+    void releaseTransformer(Transformer transformer) {
+        transformer.reset();
+        idleTransformer.set(transformer);
+    }
+
+    DocumentBuilder acquireDocumentBuilder() throws TransformerException {
+        DocumentBuilder documentBuilder = idleDocumentBuilder.get();
+        if (documentBuilder == null) {
+            try {
+                synchronized (documentBuilderFactory) {
+                    return documentBuilderFactory.newDocumentBuilder();
+                }
+            } catch (ParserConfigurationException e) {
+                throw new TransformerException(e);
+            }
+        }
+        idleDocumentBuilder.set(null);
+        return documentBuilder;
+    }
+
+    void releaseDocumentBuilder(DocumentBuilder documentBuilder) {
+        documentBuilder.reset();
+        idleDocumentBuilder.set(documentBuilder);
+    }
+
+    XMLReader acquireXMLReader() throws SAXException {
+        XMLReader xmlReader = idleXMLReader.get();
+        if (xmlReader == null) {
+            try {
+                synchronized (parserFactory) {
+                    return parserFactory.newSAXParser().getXMLReader();
+                }
+            } catch (ParserConfigurationException e) {
+                throw new SAXException(e);
+            }
+        }
+        idleXMLReader.set(null);
+        return xmlReader;
+    }
+
+    void releaseXMLReader(XMLReader xmlReader) {
+        // don't keep the handler, and whatever it references, reachable
+        xmlReader.setContentHandler(NOOP_HANDLER);
+        idleXMLReader.set(xmlReader);
+    }
+}
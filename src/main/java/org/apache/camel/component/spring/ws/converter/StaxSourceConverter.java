@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.converter;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.camel.Converter;
+import org.springframework.xml.transform.StaxSource;
+
+/**
+ * Gives routes direct access to the StAX reader behind a Spring-WS
+ * {@link StaxSource}, as exposed by consumers using the
+ * <code>streamingBody</code> option. Reading from it pulls the payload
+ * straight from the request, without building it in memory.
+ * 
+ * @author Richard Kettelerij
+ * 
+ */
+@Converter
+public class StaxSourceConverter {
+
+    public StaxSourceConverter() {
+    }
+
+    /**
+     * Returns the {@link XMLStreamReader} of a {@link StaxSource}, or
+     * <code>null</code> when it's backed by an {@link XMLEventReader}.
+     */
+    @Converter
+    public XMLStreamReader toXMLStreamReader(StaxSource staxSource) {
+        return staxSource.getXMLStreamReader();
+    }
+
+    /**
+     * Returns the {@link XMLEventReader} of a {@link StaxSource}, or
+     * <code>null</code> when it's backed by an {@link XMLStreamReader}.
+     */
+    @Converter
+    public XMLEventReader toXMLEventReader(StaxSource staxSource) {
+        return staxSource.getXMLEventReader();
+    }
+}
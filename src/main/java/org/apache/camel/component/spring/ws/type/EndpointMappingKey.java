@@ -16,6 +16,8 @@
  */
 package org.apache.camel.component.spring.ws.type;
 
+import java.util.Map;
+
 import org.springframework.xml.xpath.XPathExpression;
 
 public class EndpointMappingKey {
@@ -24,10 +26,17 @@ public class EndpointMappingKey {
 
     /* expression in case type is 'xpath' */
     private XPathExpression expression;
+    private String expressionText;
+    private Map<String, String> namespaces;
 
     public EndpointMappingKey(EndpointMappingType type, String lookupKey, XPathExpression expression) {
+        this(type, lookupKey, null, expression);
+    }
+
+    public EndpointMappingKey(EndpointMappingType type, String lookupKey, String expressionText, XPathExpression expression) {
         this.type = type;
         this.lookupKey = lookupKey;
+        this.expressionText = expressionText;
         this.expression = expression;
     }
 
@@ -55,14 +64,46 @@ public class EndpointMappingKey {
         this.expression = expression;
     }
 
+    /**
+     * @return the source text of the XPath expression, or <code>null</code>
+     *         when unknown
+     */
+    public String getExpressionText() {
+        return expressionText;
+    }
+
+    public void setExpressionText(String expressionText) {
+        this.expressionText = expressionText;
+    }
+
+    /**
+     * @return prefix to namespace URI bindings of the XPath expression, or
+     *         <code>null</code> if there are none
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    public void setNamespaces(Map<String, String> namespaces) {
+        this.namespaces = namespaces;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
         result = prime * result + ((lookupKey == null) ? 0 : lookupKey.hashCode());
+        result = prime * result + ((expressionText == null) ? 0 : expressionText.hashCode());
+        result = prime * result + ((namespaces == null) ? 0 : namespaces.hashCode());
         return result;
     }
 
+    /**
+     * Keys are equal when they have the same mapping type, lookup key and
+     * expression. Expressions are compared by their text and namespace
+     * bindings when known, else by identity.
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -72,11 +113,28 @@ public class EndpointMappingKey {
         if (getClass() != obj.getClass())
             return false;
         EndpointMappingKey other = (EndpointMappingKey) obj;
+        if (type != other.type)
+            return false;
         if (lookupKey == null) {
             if (other.lookupKey != null)
                 return false;
         } else if (!lookupKey.equals(other.lookupKey))
             return false;
+        if (expressionText == null) {
+            if (other.expressionText != null || expression != other.expression)
+                return false;
+        } else if (!expressionText.equals(other.expressionText))
+            return false;
+        if (namespaces == null) {
+            if (other.namespaces != null)
+                return false;
+        } else if (!namespaces.equals(other.namespaces))
+            return false;
         return true;
     }
+
+    @Override
+    public String toString() {
+        return "EndpointMappingKey [type=" + type + ", lookupKey=" + lookupKey + (expressionText != null ? ", expression=" + expressionText : "") + "]";
+    }
 }
\ No newline at end of file
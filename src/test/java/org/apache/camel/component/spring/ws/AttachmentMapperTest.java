@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPMessage;
+
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+import org.apache.camel.impl.DefaultMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.mime.Attachment;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+
+public class AttachmentMapperTest {
+
+    private SaajSoapMessageFactory messageFactory;
+    private PayloadSpooler payloadSpooler;
+
+    @Before
+    public void setUp() throws Exception {
+        messageFactory = new SaajSoapMessageFactory(MessageFactory.newInstance());
+        messageFactory.afterPropertiesSet();
+        payloadSpooler = new PayloadSpooler(1024, null, new PayloadSpooler.SpoolSpace(0), new XmlResourcePool());
+    }
+
+    @Test
+    public void inboundAttachmentsAreExposedAsCamelAttachments() throws Exception {
+        SoapMessage request = (SoapMessage) messageFactory.createWebServiceMessage();
+        request.addAttachment("quote", new DataHandler("GOOG", "text/plain"));
+
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request);
+        Map<String, DataHandler> attachments = message.getAttachments();
+        assertEquals(1, attachments.size());
+        assertEquals("GOOG", read(attachments.values().iterator().next().getInputStream()));
+    }
+
+    @Test
+    public void camelAttachmentsAreAddedToOutboundMessage() throws Exception {
+        DefaultMessage message = new DefaultMessage();
+        message.addAttachment("quote", new DataHandler("GOOG", "text/plain"));
+        SoapMessage request = (SoapMessage) messageFactory.createWebServiceMessage();
+
+        AttachmentMapper.addAttachments(message, request, false);
+        Iterator<?> attachments = request.getAttachments();
+        assertTrue(attachments.hasNext());
+        assertEquals("GOOG", read(((Attachment) attachments.next()).getInputStream()));
+        assertFalse(attachments.hasNext());
+    }
+
+    @Test
+    public void copiedAttachmentsOutliveTheMessage() throws Exception {
+        SoapMessage response = (SoapMessage) messageFactory.createWebServiceMessage();
+        response.addAttachment("quote", new DataHandler("GOOG", "text/plain"));
+
+        Map<String, DataHandler> attachments = new HashMap<String, DataHandler>();
+        List<SpooledPayloadSource> copies = new ArrayList<SpooledPayloadSource>();
+        AttachmentMapper.copyAttachments(response, attachments, payloadSpooler, copies);
+        assertEquals(1, copies.size());
+
+        // the copy no longer depends on the webservice message
+        ((SaajSoapMessage) response).getSaajMessage().removeAllAttachments();
+        DataHandler quote = attachments.values().iterator().next();
+        assertEquals("text/plain", quote.getContentType());
+        assertEquals("GOOG", read(quote.getInputStream()));
+        assertEquals("GOOG", read(quote.getInputStream()));
+    }
+
+    @Test
+    public void largeCopiedAttachmentsAreSpilledToDisk() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            content.append("GOOG MSFT ");
+        }
+        SoapMessage response = (SoapMessage) messageFactory.createWebServiceMessage();
+        response.addAttachment("quote", new DataHandler(content.toString(), "text/plain"));
+
+        Map<String, DataHandler> attachments = new HashMap<String, DataHandler>();
+        List<SpooledPayloadSource> copies = new ArrayList<SpooledPayloadSource>();
+        AttachmentMapper.copyAttachments(response, attachments, payloadSpooler, copies);
+        try {
+            assertFalse(copies.get(0).isInMemory());
+            assertEquals(content.toString(), read(attachments.values().iterator().next().getInputStream()));
+        } finally {
+            copies.get(0).release();
+        }
+    }
+
+    @Test
+    public void attachmentsWithoutContentIdAreGivenOne() throws Exception {
+        SaajSoapMessage request = (SaajSoapMessage) messageFactory.createWebServiceMessage();
+        SOAPMessage saajMessage = request.getSaajMessage();
+        saajMessage.addAttachmentPart(saajMessage.createAttachmentPart(new DataHandler("GOOG", "text/plain")));
+        saajMessage.addAttachmentPart(saajMessage.createAttachmentPart(new DataHandler("MSFT", "text/plain")));
+
+        Map<String, DataHandler> attachments = new HashMap<String, DataHandler>();
+        AttachmentMapper.extractAttachments(request, attachments);
+        assertEquals(2, attachments.size());
+        assertFalse(attachments.containsKey(null));
+    }
+
+    private String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            int b;
+            while ((b = in.read()) != -1) {
+                out.write(b);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void excessRequestsAreQueuedUpToTheLimit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 0);
+        assertTrue(limiter.acquire());
+
+        Thread queued = startAcquiring(limiter, new ArrayList<String>(), "queued");
+        awaitQueued(limiter, 1);
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejectedRequests());
+
+        limiter.release();
+        queued.join(5000);
+        assertEquals(0, limiter.getQueuedRequests());
+    }
+
+    @Test
+    public void queuedRequestsTimeOut() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 100);
+        assertTrue(limiter.acquire());
+
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejectedRequests());
+        assertEquals(0, limiter.getQueuedRequests());
+    }
+
+    @Test
+    public void newRequestsDoNotBargeAheadOfQueuedRequests() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, 0);
+        assertTrue(limiter.acquire());
+
+        List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        Thread queued = startAcquiring(limiter, admitted, "queued");
+        awaitQueued(limiter, 1);
+
+        // the released permit belongs to the queued request
+        limiter.release();
+        assertTrue(limiter.acquire());
+        admitted.add("new");
+        limiter.release();
+        queued.join(5000);
+
+        assertEquals(Arrays.asList("queued", "new"), admitted);
+    }
+
+    private Thread startAcquiring(final ConcurrencyLimiter limiter, final List<String> admitted, final String name) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                if (limiter.acquire()) {
+                    admitted.add(name);
+                    limiter.release();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitQueued(ConcurrencyLimiter limiter, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueuedRequests() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, limiter.getQueuedRequests());
+        // give the request time to park on the semaphore
+        Thread.sleep(100);
+    }
+}
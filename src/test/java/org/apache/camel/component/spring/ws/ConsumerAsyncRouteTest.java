@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.util.FileUtil;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.client.core.WebServiceTemplate;
+import org.springframework.ws.soap.client.SoapFaultClientException;
+
+public class ConsumerAsyncRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String xmlRequestForDelayedStockQuote = "<GetDelayedQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetDelayedQuote>";
+    private static final String xmlRequestForSlowStockQuote = "<GetSlowQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetSlowQuote>";
+
+    private String expectedResponse;
+    private WebServiceTemplate webServiceTemplate;
+
+    public ConsumerAsyncRouteTest() throws IOException {
+        expectedResponse = FileUtil.readFileAsString("src/test/resources/stockquote-response.xml");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+    }
+
+    @Test
+    public void testAsyncRouting() throws Exception {
+        assertEquals(expectedResponse, sendAndReceive(xmlRequestForGoogleStockQuote));
+    }
+
+    @Test
+    public void testSlowRequestsAreServedByASmallWorkerPool() throws Exception {
+        // 20 requests that each wait 500 ms, routed through a pool of 2 worker threads
+        int requestCount = 20;
+        ExecutorService clients = Executors.newFixedThreadPool(requestCount);
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<String>> responses = new ArrayList<Future<String>>();
+            for (int i = 0; i < requestCount; i++) {
+                responses.add(clients.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return sendAndReceive(xmlRequestForDelayedStockQuote);
+                    }
+                }));
+            }
+            for (Future<String> response : responses) {
+                assertEquals(expectedResponse, response.get());
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            // the workers would need 20 * 500 / 2 = 5000 ms if waiting held on to them
+            assertTrue("Took " + elapsed + " ms", elapsed < 2500);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncTimeoutIsAnsweredWithFault() throws Exception {
+        try {
+            sendAndReceive(xmlRequestForSlowStockQuote);
+            fail("Expected a SOAP fault");
+        } catch (SoapFaultClientException e) {
+            assertEquals("Route did not complete within 200 ms", e.getMessage());
+        }
+    }
+
+    private String sendAndReceive(String request) {
+        StreamSource source = new StreamSource(new StringReader(request));
+        StringWriter sw = new StringWriter();
+        webServiceTemplate.sendSourceAndReceiveToResult(source, new StreamResult(sw));
+        return sw.toString();
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ConsumerAsyncRouteTest-context.xml");
+    }
+}
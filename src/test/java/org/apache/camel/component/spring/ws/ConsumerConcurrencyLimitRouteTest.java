@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.client.core.WebServiceTemplate;
+import org.springframework.ws.soap.client.SoapFaultClientException;
+
+public class ConsumerConcurrencyLimitRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+
+    private WebServiceTemplate webServiceTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+    }
+
+    @Test
+    public void testExcessRequestIsRejectedWithFault() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return sendAndReceive();
+                }
+            });
+            SpringWebserviceConsumer consumer = (SpringWebserviceConsumer) context.getRoutes().get(0).getConsumer();
+            while (consumer.getInFlightRequests() == 0) {
+                Thread.sleep(10);
+            }
+            try {
+                sendAndReceive();
+                fail("Expected request to be rejected");
+            } catch (SoapFaultClientException e) {
+                assertEquals(1, consumer.getRejectedRequests());
+            }
+            assertNotNull(first.get());
+            assertEquals(0, consumer.getInFlightRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String sendAndReceive() {
+        StreamSource source = new StreamSource(new StringReader(xmlRequestForGoogleStockQuote));
+        StringWriter sw = new StringWriter();
+        webServiceTemplate.sendSourceAndReceiveToResult(source, new StreamResult(sw));
+        return sw.toString();
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ConsumerConcurrencyLimitRouteTest-context.xml");
+    }
+}
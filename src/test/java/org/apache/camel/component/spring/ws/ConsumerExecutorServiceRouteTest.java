@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.spring.ws.util.FileUtil;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.client.core.WebServiceTemplate;
+import org.springframework.ws.soap.client.SoapFaultClientException;
+
+public class ConsumerExecutorServiceRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String xmlRequestForSlowStockQuote = "<GetSlowQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetSlowQuote>";
+    private static final String xmlRequestForBusyStockQuote = "<GetBusyQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetBusyQuote>";
+
+    private String expectedResponse;
+    private WebServiceTemplate webServiceTemplate;
+
+    public ConsumerExecutorServiceRouteTest() throws IOException {
+        expectedResponse = FileUtil.readFileAsString("src/test/resources/stockquote-response.xml");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+    }
+
+    @Test
+    public void testRouteRunsOnConfiguredExecutor() throws Exception {
+        assertEquals(expectedResponse, sendAndReceive(xmlRequestForGoogleStockQuote));
+
+        ThreadRecorder threadRecorder = (ThreadRecorder) applicationContext.getBean("threadRecorder");
+        assertNotNull(threadRecorder.getThreadName());
+        assertTrue(threadRecorder.getThreadName(), threadRecorder.getThreadName().startsWith("route-executor-"));
+    }
+
+    @Test
+    public void testConsumerDoesNotShutDownExecutor() throws Exception {
+        ExecutorService routeExecutor = (ExecutorService) applicationContext.getBean("routeExecutor");
+        context.stopRoute("getQuote");
+        assertFalse(routeExecutor.isShutdown());
+    }
+
+    @Test
+    public void testRejectedRequestIsAnsweredWithFault() throws Exception {
+        // occupy the single thread of the busy executor
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = client.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return sendAndReceive(xmlRequestForBusyStockQuote);
+                }
+            });
+            Thread.sleep(300);
+            try {
+                sendAndReceive(xmlRequestForBusyStockQuote);
+                fail("Expected a SOAP fault");
+            } catch (SoapFaultClientException e) {
+                assertEquals("Service is overloaded, please retry later", e.getMessage());
+            }
+            assertEquals(expectedResponse, first.get());
+        } finally {
+            client.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecutorTimeoutIsAnsweredWithFault() throws Exception {
+        try {
+            sendAndReceive(xmlRequestForSlowStockQuote);
+            fail("Expected a SOAP fault");
+        } catch (SoapFaultClientException e) {
+            assertEquals("Route did not complete within 200 ms", e.getMessage());
+        }
+    }
+
+    private String sendAndReceive(String request) {
+        StreamSource source = new StreamSource(new StringReader(request));
+        StringWriter sw = new StringWriter();
+        webServiceTemplate.sendSourceAndReceiveToResult(source, new StreamResult(sw));
+        return sw.toString();
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ConsumerExecutorServiceRouteTest-context.xml");
+    }
+
+    /**
+     * Records the name of the thread the route runs on
+     */
+    public static class ThreadRecorder implements Processor {
+        private volatile String threadName;
+
+        public void process(Exchange exchange) throws Exception {
+            threadName = Thread.currentThread().getName();
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.component.spring.ws.util.FileUtil;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.client.core.WebServiceMessageCallback;
+import org.springframework.ws.client.core.WebServiceTemplate;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.client.SoapFaultClientException;
+
+public class ConsumerIdempotentRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+
+    private String expectedResponse;
+    private WebServiceTemplate webServiceTemplate;
+
+    public ConsumerIdempotentRouteTest() throws IOException {
+        expectedResponse = FileUtil.readFileAsString("src/test/resources/stockquote-response.xml");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+    }
+
+    @Test
+    public void testDuplicateMessageIsNotProcessedAgain() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:processed");
+        mock.expectedMessageCount(1);
+
+        assertEquals(expectedResponse, sendAndReceive("urn:uuid:3f4b3b0e-0c1a-4b6c-9b1e-6a5f0b6f1c01"));
+        assertEquals(expectedResponse, sendAndReceive("urn:uuid:3f4b3b0e-0c1a-4b6c-9b1e-6a5f0b6f1c01"));
+
+        mock.assertIsSatisfied();
+        SpringWebserviceConsumer consumer = (SpringWebserviceConsumer) context.getRoutes().get(0).getConsumer();
+        assertEquals(1, consumer.getDuplicateRequests());
+    }
+
+    @Test
+    public void testMessagesWithoutMessageIdAreProcessed() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:processed");
+        mock.expectedMessageCount(3);
+
+        sendAndReceive("urn:uuid:3f4b3b0e-0c1a-4b6c-9b1e-6a5f0b6f1c02");
+        sendAndReceive(null);
+        sendAndReceive(null);
+
+        mock.assertIsSatisfied();
+    }
+
+    @Test
+    public void testDuplicateOfMessageWithoutStoredResponseIsAnsweredWithFault() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:processedLarge");
+        mock.expectedMessageCount(1);
+
+        String messageId = "urn:uuid:3f4b3b0e-0c1a-4b6c-9b1e-6a5f0b6f1c03";
+        assertEquals(expectedResponse, sendAndReceive(messageId, "http://www.stockquotes.edu/GetLargeQuote"));
+        try {
+            sendAndReceive(messageId, "http://www.stockquotes.edu/GetLargeQuote");
+            fail("Expected a SoapFaultClientException");
+        } catch (SoapFaultClientException e) {
+            assertEquals("Message " + messageId + " has already been processed", e.getMessage());
+        }
+
+        mock.assertIsSatisfied();
+    }
+
+    private String sendAndReceive(String messageId) {
+        return sendAndReceive(messageId, null);
+    }
+
+    private String sendAndReceive(final String messageId, final String soapAction) {
+        StreamSource source = new StreamSource(new StringReader(xmlRequestForGoogleStockQuote));
+        StringWriter sw = new StringWriter();
+        webServiceTemplate.sendSourceAndReceiveToResult(source, new WebServiceMessageCallback() {
+            public void doWithMessage(WebServiceMessage message) {
+                if (soapAction != null) {
+                    ((SoapMessage) message).setSoapAction(soapAction);
+                }
+                if (messageId != null) {
+                    QName name = new QName("http://www.w3.org/2005/08/addressing", "MessageID");
+                    ((SoapMessage) message).getSoapHeader().addHeaderElement(name).setText(messageId);
+                }
+            }
+        }, new StreamResult(sw));
+        return sw.toString();
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ConsumerIdempotentRouteTest-context.xml");
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.ResolveEndpointFailedException;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.component.spring.ws.util.FileUtil;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.client.core.WebServiceTemplate;
+
+public class ConsumerResponseCacheRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String xmlRequestForAppleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>AAPL</symbol></GetQuote>";
+
+    private String expectedResponse;
+    private WebServiceTemplate webServiceTemplate;
+
+    public ConsumerResponseCacheRouteTest() throws IOException {
+        expectedResponse = FileUtil.readFileAsString("src/test/resources/stockquote-response.xml");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+    }
+
+    @Test
+    public void testRepeatedRequestIsServedFromCache() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:processed");
+        mock.expectedMessageCount(1);
+
+        assertEquals(expectedResponse, sendAndReceive(xmlRequestForGoogleStockQuote));
+        assertEquals(expectedResponse, sendAndReceive(xmlRequestForGoogleStockQuote));
+
+        mock.assertIsSatisfied();
+        PayloadCache responseCache = (PayloadCache) applicationContext.getBean("responseCache");
+        assertEquals(1, responseCache.getHits());
+    }
+
+    @Test
+    public void testDifferentRequestsAreProcessed() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:processed");
+        mock.expectedMessageCount(2);
+
+        sendAndReceive(xmlRequestForGoogleStockQuote);
+        sendAndReceive(xmlRequestForAppleStockQuote);
+
+        mock.assertIsSatisfied();
+    }
+
+    @Test
+    public void testResponseCacheIsRejectedWithStreamingBody() throws Exception {
+        try {
+            context.getEndpoint("springws:rootqname:{http://www.webserviceX.NET/}GetQuote?endpointMapping=#endpointMapping&responseCache=#responseCache&streamingBody=true");
+            fail("Expected a ResolveEndpointFailedException");
+        } catch (ResolveEndpointFailedException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("can't be combined with streamingBody"));
+        }
+    }
+
+    private String sendAndReceive(String request) {
+        StreamSource source = new StreamSource(new StringReader(request));
+        StringWriter sw = new StringWriter();
+        webServiceTemplate.sendSourceAndReceiveToResult(source, new StreamResult(sw));
+        return sw.toString();
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ConsumerResponseCacheRouteTest-context.xml");
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdempotentReceiverTest {
+
+    private static final byte[] RESPONSE = {1, 2, 3};
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void duplicateIsAnsweredWithStoredResponse() throws Exception {
+        IdempotentReceiver receiver = new IdempotentReceiver(new PayloadCache(), 1000);
+        assertNull(receiver.begin("a"));
+        receiver.complete("a", RESPONSE);
+
+        assertArrayEquals(RESPONSE, receiver.begin("a"));
+        assertEquals(1, receiver.getDuplicates());
+        assertEquals(0, receiver.getInFlightMessages());
+    }
+
+    @Test
+    public void duplicateWaitsForMessageBeingProcessed() throws Exception {
+        final IdempotentReceiver receiver = new IdempotentReceiver(new PayloadCache(), 5000);
+        assertNull(receiver.begin("a"));
+
+        Future<byte[]> duplicate = beginLater(receiver, "a");
+        Thread.sleep(100);
+        receiver.complete("a", RESPONSE);
+
+        assertArrayEquals(RESPONSE, duplicate.get());
+    }
+
+    @Test
+    public void duplicateStopsWaitingAfterTimeout() throws Exception {
+        IdempotentReceiver receiver = new IdempotentReceiver(new PayloadCache(), 100);
+        assertNull(receiver.begin("a"));
+
+        long start = System.currentTimeMillis();
+        try {
+            receiver.begin("a");
+            fail("Expected a TimeoutException");
+        } catch (TimeoutException e) {
+            assertEquals("Message a is still being processed", e.getMessage());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Waited " + elapsed + " ms", elapsed >= 100 && elapsed < 1000);
+    }
+
+    @Test
+    public void messageWithoutStoredResponseIsRememberedAsProcessed() throws Exception {
+        PayloadCache store = new PayloadCache();
+        store.setMaxBytes(2);
+        IdempotentReceiver receiver = new IdempotentReceiver(store, 5000);
+        assertNull(receiver.begin("a"));
+        assertNull(receiver.begin("b"));
+
+        Future<byte[]> duplicate = beginLater(receiver, "a");
+        Thread.sleep(100);
+        // e.g. an empty response or a fault
+        receiver.complete("a", null);
+        // too large for the store
+        receiver.complete("b", RESPONSE);
+
+        assertArrayEquals(new byte[0], duplicate.get());
+        assertArrayEquals(new byte[0], receiver.begin("b"));
+        assertEquals(0, receiver.getInFlightMessages());
+        assertEquals(2, receiver.getDuplicates());
+    }
+
+    @Test
+    public void duplicateOfAbandonedMessageIsProcessed() throws Exception {
+        IdempotentReceiver receiver = new IdempotentReceiver(new PayloadCache(), 5000);
+        assertNull(receiver.begin("a"));
+
+        Future<byte[]> duplicate = beginLater(receiver, "a");
+        Thread.sleep(100);
+        // e.g. the request was shed
+        receiver.abandon("a");
+
+        assertNull(duplicate.get());
+        assertEquals(1, receiver.getInFlightMessages());
+        assertEquals(0, receiver.getDuplicates());
+    }
+
+    @Test
+    public void duplicateIsAnsweredWhenMessageCompletesBeforeItRegisters() throws Exception {
+        final PayloadCache cache = new PayloadCache();
+        final IdempotentReceiver[] receiver = new IdempotentReceiver[1];
+        final boolean[] completeOnLookup = new boolean[1];
+        // completes the message right after the duplicate found no response
+        // and before it registers as the one processing it
+        receiver[0] = new IdempotentReceiver(new PayloadStore() {
+            public byte[] get(String key) {
+                byte[] response = cache.get(key);
+                if (completeOnLookup[0]) {
+                    completeOnLookup[0] = false;
+                    receiver[0].complete(key, RESPONSE);
+                }
+                return response;
+            }
+
+            public boolean put(String key, byte[] payload) {
+                return cache.put(key, payload);
+            }
+        }, 1000);
+        assertNull(receiver[0].begin("a"));
+
+        completeOnLookup[0] = true;
+        assertArrayEquals(RESPONSE, receiver[0].begin("a"));
+        assertEquals(1, receiver[0].getDuplicates());
+        assertEquals(0, receiver[0].getInFlightMessages());
+    }
+
+    private Future<byte[]> beginLater(final IdempotentReceiver receiver, final String messageId) {
+        return executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return receiver.begin(messageId);
+            }
+        });
+    }
+}
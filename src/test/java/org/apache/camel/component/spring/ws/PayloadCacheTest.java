@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadCacheTest {
+
+    private PayloadCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new PayloadCache();
+        cache.setMaxEntries(2);
+        cache.setMaxBytes(10);
+    }
+
+    @Test
+    public void cachedPayloadIsReturned() {
+        cache.put("a", new byte[] {1, 2, 3});
+        assertEquals(3, cache.get("a").length);
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        cache.put("a", new byte[1]);
+        cache.put("b", new byte[1]);
+        cache.get("a");
+        cache.put("c", new byte[1]);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void cacheIsBoundedByBytes() {
+        cache.put("a", new byte[6]);
+        assertTrue(cache.put("b", new byte[6]));
+        assertNull(cache.get("a"));
+        assertEquals(6, cache.getBytes());
+        assertFalse(cache.put("c", new byte[11]));
+        assertNull(cache.get("c"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void replacedEntryReleasesItsBytes() {
+        cache.put("a", new byte[6]);
+        cache.put("a", new byte[4]);
+        assertEquals(4, cache.getBytes());
+        cache.remove("a");
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void expiredEntryIsNotReturned() throws Exception {
+        cache.setTimeToLive(10);
+        cache.put("a", new byte[1]);
+        Thread.sleep(50);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}
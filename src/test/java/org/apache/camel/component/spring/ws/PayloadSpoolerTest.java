@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadSpoolerTest {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+
+    private File spoolDirectory;
+    private PayloadSpooler.SpoolSpace spoolSpace;
+    private PayloadSpooler payloadSpooler;
+    private String largePayload;
+
+    @Before
+    public void setUp() {
+        spoolDirectory = new File("target/spool");
+        spoolDirectory.mkdirs();
+        spoolSpace = new PayloadSpooler.SpoolSpace(0);
+        payloadSpooler = new PayloadSpooler(1024, spoolDirectory, spoolSpace, new XmlResourcePool());
+        StringBuilder builder = new StringBuilder("<GetQuotes>");
+        for (int i = 0; i < 1000; i++) {
+            builder.append("<symbol>GOOG</symbol>");
+        }
+        largePayload = builder.append("</GetQuotes>").toString();
+    }
+
+    @Test
+    public void smallPayloadIsKeptInMemory() throws Exception {
+        SpooledPayloadSource source = payloadSpooler.spool(new StreamSource(new StringReader(xmlRequestForGoogleStockQuote)));
+        assertTrue(source.isInMemory());
+        assertEquals(0, spoolSpace.getUsed());
+    }
+
+    @Test
+    public void largePayloadIsSpilledToDiskAndRereadable() throws Exception {
+        SpooledPayloadSource source = payloadSpooler.spool(new StreamSource(new StringReader(largePayload)));
+        assertFalse(source.isInMemory());
+        assertEquals(source.getSize(), spoolSpace.getUsed());
+        assertEquals(source.getSize(), count(source.getInputStream()));
+        assertEquals(source.getSize(), count(source.getInputStream()));
+
+        source.release();
+        assertEquals(0, spoolSpace.getUsed());
+    }
+
+    @Test
+    public void getInputStreamReturnsTheSameStreamUntilItIsRead() throws Exception {
+        SpooledPayloadSource source = payloadSpooler.spool(new StreamSource(new StringReader(largePayload)));
+        InputStream first = source.getInputStream();
+        assertSame(first, source.getInputStream());
+        assertEquals(source.getSize(), count(first));
+        InputStream second = source.getInputStream();
+        assertNotSame(first, second);
+        assertEquals(source.getSize(), count(second));
+        source.release();
+    }
+
+    @Test
+    public void releaseClosesOpenStreams() throws Exception {
+        SpooledPayloadSource source = payloadSpooler.spool(new StreamSource(new StringReader(largePayload)));
+        InputStream opened = source.openStream();
+        InputStream current = source.getInputStream();
+        assertNotSame(opened, current);
+        source.release();
+        assertEquals(0, spoolSpace.getUsed());
+        assertClosed(opened);
+        assertClosed(current);
+    }
+
+    @Test
+    public void spoolSpaceIsBounded() throws Exception {
+        spoolSpace.setLimit(10000);
+        try {
+            payloadSpooler.spool(new StreamSource(new StringReader(largePayload)));
+            fail("Expected spool space to be exhausted");
+        } catch (TransformerException e) {
+            // expected
+        }
+        assertEquals(0, spoolSpace.getUsed());
+    }
+
+    private void assertClosed(InputStream in) {
+        try {
+            in.read();
+            fail("Expected stream to be closed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private long count(InputStream in) throws Exception {
+        long count = 0;
+        try {
+            while (in.read() != -1) {
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+}
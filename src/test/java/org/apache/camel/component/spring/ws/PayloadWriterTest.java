@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+import org.apache.camel.converter.jaxp.XmlConverter;
+import org.apache.camel.impl.DefaultMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class PayloadWriterTest {
+
+    private static final String xmlResponse = "<q:GetQuoteResponse xmlns:q=\"http://www.webserviceX.NET/\"><q:GetQuoteResult>GOOG</q:GetQuoteResult></q:GetQuoteResponse>";
+
+    private PayloadWriter payloadWriter;
+    private XmlConverter xmlConverter;
+    private Document responseDocument;
+    private Element responseBody;
+
+    @Before
+    public void setUp() throws Exception {
+        xmlConverter = new XmlConverter();
+        payloadWriter = new PayloadWriter(new XmlResourcePool());
+        responseDocument = xmlConverter.createDocument();
+        responseBody = responseDocument.createElementNS("http://schemas.xmlsoap.org/soap/envelope/", "soap:Body");
+        responseDocument.appendChild(responseBody);
+    }
+
+    @Test
+    public void writeStringIntoDomResult() throws Exception {
+        write(xmlResponse, new DOMResult(responseBody));
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeBytesIntoDomResult() throws Exception {
+        write(xmlResponse.getBytes("UTF-8"), new DOMResult(responseBody));
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeStreamSourceIntoDomResult() throws Exception {
+        write(new StreamSource(new StringReader(xmlResponse)), new DOMResult(responseBody));
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeDocumentIntoDomResult() throws Exception {
+        write(xmlConverter.toDOMDocument(xmlResponse), new DOMResult(responseBody));
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeStringIntoSaxResult() throws Exception {
+        write(xmlResponse, createSaxResult());
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeDocumentIntoSaxResult() throws Exception {
+        write(xmlConverter.toDOMDocument(xmlResponse), createSaxResult());
+        assertResponseWritten();
+    }
+
+    @Test
+    public void writeUndeclaredNamespacesIntoSaxResult() throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element response = document.createElementNS("http://www.webserviceX.NET/", "q:GetQuoteResponse");
+        Element result = document.createElementNS("http://www.webserviceX.NET/", "q:GetQuoteResult");
+        result.setTextContent("GOOG");
+        response.appendChild(result);
+        document.appendChild(response);
+
+        write(document, createSaxResult());
+        assertResponseWritten();
+    }
+
+    private void write(Object body, Result result) throws Exception {
+        DefaultMessage message = new DefaultMessage();
+        message.setBody(body);
+        payloadWriter.write(message, result);
+    }
+
+    private SAXResult createSaxResult() throws Exception {
+        TransformerHandler handler = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        handler.setResult(new DOMResult(responseBody));
+        return new SAXResult(handler);
+    }
+
+    private void assertResponseWritten() {
+        Element response = (Element) responseBody.getFirstChild();
+        assertEquals("http://www.webserviceX.NET/", response.getNamespaceURI());
+        assertEquals("GetQuoteResponse", response.getLocalName());
+        Element result = (Element) response.getFirstChild();
+        assertEquals("http://www.webserviceX.NET/", result.getNamespaceURI());
+        assertEquals("GOOG", result.getTextContent());
+    }
+}
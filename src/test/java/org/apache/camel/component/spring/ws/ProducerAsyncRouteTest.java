@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.component.spring.ws.util.StubHttpServer;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class ProducerAsyncRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String soapResponse = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+        + "<Quote xmlns=\"http://www.stockquotes.edu/\"><Symbol>GOOG</Symbol><Name>Google Inc.</Name></Quote>"
+        + "</soapenv:Body></soapenv:Envelope>";
+    private static final long serverDelay = 500;
+
+    private static StubHttpServer server;
+
+    /**
+     * Starts a stub web service that sleeps before responding
+     */
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StubHttpServer(soapResponse, serverDelay);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void testCallingThreadIsReleasedWhileRequestIsInFlight() throws Exception {
+        Producer producer = context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?async=true").createProducer();
+        producer.start();
+        try {
+            Exchange exchange = new DefaultExchange(context);
+            exchange.getIn().setBody(xmlRequestForGoogleStockQuote);
+            final CountDownLatch latch = new CountDownLatch(1);
+            long start = System.currentTimeMillis();
+            boolean sync = ((SpringWebserviceProducer) producer).process(exchange, new AsyncCallback() {
+                public void done(boolean doneSync) {
+                    latch.countDown();
+                }
+            });
+            assertFalse(sync);
+            assertTrue(System.currentTimeMillis() - start < serverDelay);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNull(exchange.getException());
+            assertTrue(exchange.getOut().getBody(String.class).contains("Google Inc."));
+        } finally {
+            producer.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentAsyncRequests() throws Exception {
+        List<Future<Object>> responses = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(template.asyncRequestBody("springws:" + server.getUrl("/stockquote") + "?async=true", xmlRequestForGoogleStockQuote));
+        }
+        for (Future<Object> response : responses) {
+            Object body = template.extractFutureBody(response, Object.class);
+            assertTrue(context.getTypeConverter().convertTo(String.class, body).contains("Google Inc."));
+        }
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ProducerAsyncRouteTest-context.xml");
+    }
+}
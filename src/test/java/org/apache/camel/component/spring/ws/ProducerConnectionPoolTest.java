@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.camel.ResolveEndpointFailedException;
+import org.apache.camel.component.spring.ws.util.StubHttpServer;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.client.core.WebServiceTemplate;
+import org.springframework.ws.transport.WebServiceConnection;
+import org.springframework.ws.transport.WebServiceMessageSender;
+
+public class ProducerConnectionPoolTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String soapResponse = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+        + "<Quote xmlns=\"http://www.stockquotes.edu/\"><Symbol>GOOG</Symbol><Name>Google Inc.</Name></Quote>"
+        + "</soapenv:Body></soapenv:Envelope>";
+
+    private static StubHttpServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StubHttpServer(soapResponse, 0);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void testTemplateSenderIsKeptWithoutPoolOptions() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/stockquote"));
+
+        assertNull(endpoint.getConfiguration().getHttpMessageSender());
+        assertFalse(endpoint.getConfiguration().getWebServiceTemplate().getMessageSenders()[0] instanceof PooledHttpMessageSender);
+    }
+
+    @Test
+    public void testPooledHttpMessageSenderIsSharedPerHost() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?maxConnectionsPerHost=5");
+        SpringWebserviceEndpoint sameHost = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/other") + "?maxConnectionsPerHost=5");
+        SpringWebserviceEndpoint otherHost = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("127.0.0.1", "/stockquote") + "?maxConnectionsPerHost=5");
+
+        PooledHttpMessageSender sender = endpoint.getConfiguration().getHttpMessageSender();
+        assertNotNull(sender);
+        assertSame(sender, sameHost.getConfiguration().getHttpMessageSender());
+        assertNotSame(sender, otherHost.getConfiguration().getHttpMessageSender());
+
+        template.requestBody(endpoint, xmlRequestForGoogleStockQuote);
+        assertEquals(1, sender.getLeaseCount());
+        assertEquals(0, sender.getConnectionsInUse());
+        assertEquals(1, sender.getConnectionsInPool());
+    }
+
+    @Test
+    public void testPooledConnectionsAreReused() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/reused") + "?keepAlive=true");
+        assertTrue(endpoint.getConfiguration().getHttpMessageSender().isKeepAlive());
+
+        int connections = server.getConnections();
+        template.requestBody(endpoint, xmlRequestForGoogleStockQuote);
+        template.requestBody(endpoint, xmlRequestForGoogleStockQuote);
+        assertEquals(connections + 1, server.getConnections());
+    }
+
+    @Test
+    public void testConnectionsAreClosedWithoutKeepAlive() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/closed") + "?keepAlive=false");
+        assertFalse(endpoint.getConfiguration().getHttpMessageSender().isKeepAlive());
+
+        int connections = server.getConnections();
+        template.requestBody(endpoint, xmlRequestForGoogleStockQuote);
+        template.requestBody(endpoint, xmlRequestForGoogleStockQuote);
+        assertEquals(connections + 2, server.getConnections());
+    }
+
+    @Test
+    public void testRetiredPoolIsShutDownOnceRequestsComplete() throws Exception {
+        PooledHttpMessageSender sender = new PooledHttpMessageSender(2, 2, 0, 0, true);
+        WebServiceConnection connection = sender.createConnection(new URI(server.getUrl("/stockquote")));
+        sender.retire();
+        assertFalse(sender.isShutdown());
+        assertEquals(1, sender.getConnectionsInUse());
+
+        connection.close();
+        assertTrue(sender.isShutdown());
+        try {
+            sender.createConnection(new URI(server.getUrl("/stockquote")));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Connection pool has been shut down", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTimeoutsRequirePoolOptions() throws Exception {
+        try {
+            context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?readTimeout=1000");
+            fail("Expected a ResolveEndpointFailedException");
+        } catch (ResolveEndpointFailedException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("The connectionTimeout and readTimeout options apply to pooled connections"));
+        }
+    }
+
+    @Test
+    public void testPoolOptionsAreRejectedWithReferencedTemplate() throws Exception {
+        WebServiceTemplate webServiceTemplate = (WebServiceTemplate) applicationContext.getBean("webServiceTemplate");
+        WebServiceMessageSender messageSender = webServiceTemplate.getMessageSenders()[0];
+        try {
+            context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?webServiceTemplate=#webServiceTemplate&maxConnectionsPerHost=5");
+            fail("Expected a ResolveEndpointFailedException");
+        } catch (ResolveEndpointFailedException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("can't be combined with a referenced webServiceTemplate"));
+        }
+        assertSame(messageSender, webServiceTemplate.getMessageSenders()[0]);
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ProducerConnectionPoolTest-context.xml");
+    }
+}
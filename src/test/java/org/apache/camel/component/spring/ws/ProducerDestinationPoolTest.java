@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+import org.apache.camel.component.spring.ws.util.StubHttpServer;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ws.transport.WebServiceConnection;
+
+public class ProducerDestinationPoolTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String soapResponse = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+        + "<Quote xmlns=\"http://www.stockquotes.edu/\"><Symbol>GOOG</Symbol><Name>Google Inc.</Name></Quote>"
+        + "</soapenv:Body></soapenv:Envelope>";
+    private static final long serverDelay = 500;
+
+    private static StubHttpServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StubHttpServer(soapResponse, serverDelay);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void testDynamicDestinationsArePooledWithinBounds() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?maxDestinations=1");
+        DestinationHttpMessageSender sender = endpoint.getConfiguration().getDestinationMessageSender();
+        assertNotNull(sender);
+
+        Object result = template.requestBodyAndHeader(endpoint, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, server.getUrl("127.0.0.1", "/stockquote"));
+        assertTrue(context.getTypeConverter().convertTo(String.class, result).contains("Google Inc."));
+        template.requestBodyAndHeader(endpoint, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, server.getUrl("127.0.0.1", "/stockquote"));
+        assertEquals(1, sender.getDestinationCount());
+        assertEquals(0, sender.getEvictions());
+
+        template.requestBodyAndHeader(endpoint, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, server.getUrl("/stockquote"));
+        assertEquals(1, sender.getDestinationCount());
+        assertEquals(1, sender.getEvictions());
+        assertEquals(0, sender.getConnectionsInUse());
+    }
+
+    @Test
+    public void testIdleEvictedPoolIsShutDown() throws Exception {
+        DestinationHttpMessageSender sender = new DestinationHttpMessageSender(1, 2, 0, 0, true);
+        try {
+            PooledHttpMessageSender first = sender.getSender(new URI(server.getUrl("/stockquote")));
+            assertSame(first, sender.getSender(new URI(server.getUrl("/other"))));
+
+            PooledHttpMessageSender second = sender.getSender(new URI(server.getUrl("127.0.0.1", "/stockquote")));
+            assertNotSame(first, second);
+            assertTrue(first.isShutdown());
+            assertFalse(second.isShutdown());
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testEvictedPoolIsShutDownOnceConnectionsAreReleased() throws Exception {
+        SpringWebserviceEndpoint endpoint = (SpringWebserviceEndpoint) context.getEndpoint("springws:" + server.getUrl("/stockquote") + "?maxDestinations=1&async=true");
+        DestinationHttpMessageSender sender = endpoint.getConfiguration().getDestinationMessageSender();
+        String firstDestination = server.getUrl("/stockquote");
+        PooledHttpMessageSender first = sender.getSender(new URI(firstDestination));
+
+        Future<Object> inFlight = template.asyncRequestBodyAndHeader(endpoint, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, firstDestination);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (first.getConnectionsInUse() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, first.getConnectionsInUse());
+
+        // evicts the first destination while its request is in flight
+        template.requestBodyAndHeader(endpoint, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_ENDPOINT_URI, server.getUrl("127.0.0.1", "/stockquote"));
+        assertEquals(1, sender.getEvictions());
+        assertFalse(first.isShutdown());
+
+        Object result = template.extractFutureBody(inFlight, Object.class);
+        assertTrue(context.getTypeConverter().convertTo(String.class, result).contains("Google Inc."));
+        assertEquals(0, first.getConnectionsInUse());
+        assertTrue(first.isShutdown());
+    }
+
+    @Test
+    public void testRequestToEvictedPoolIsServedByNewPool() throws Exception {
+        DestinationHttpMessageSender sender = new DestinationHttpMessageSender(1, 2, 0, 0, true);
+        try {
+            URI destination = new URI(server.getUrl("/stockquote"));
+            // a request looked up the pool, which is evicted before it sends
+            PooledHttpMessageSender first = sender.getSender(destination);
+            sender.getSender(new URI(server.getUrl("127.0.0.1", "/stockquote")));
+            assertTrue(first.isShutdown());
+
+            WebServiceConnection connection = sender.createConnection(destination);
+            PooledHttpMessageSender second = sender.getSender(destination);
+            assertNotSame(first, second);
+            assertEquals(1, second.getConnectionsInUse());
+            connection.close();
+            assertEquals(0, second.getConnectionsInUse());
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutDownSenderRejectsNewDestinations() throws Exception {
+        DestinationHttpMessageSender sender = new DestinationHttpMessageSender(1, 2, 0, 0, true);
+        sender.retire();
+        try {
+            sender.createConnection(new URI(server.getUrl("/stockquote")));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Message sender has been shut down", e.getMessage());
+        }
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ProducerDestinationPoolTest-context.xml");
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.camel.component.spring.ws.util.StubHttpServer;
+import org.apache.camel.component.spring.ws.util.StubHttpServer.ReceivedRequest;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class ProducerMessageCallbackTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String soapResponse = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>"
+        + "<Quote xmlns=\"http://www.stockquotes.edu/\"><Symbol>GOOG</Symbol><Name>Google Inc.</Name></Quote>"
+        + "</soapenv:Body></soapenv:Envelope>";
+    private static final String soapAction = "http://www.webserviceX.NET/GetQuote";
+    private static final String wsAddressingAction = "http://www.webserviceX.NET/GetQuoteRequest";
+    private static final Pattern messageIdPattern = Pattern.compile("MessageID[^>]*>([^<]+)<");
+
+    private static StubHttpServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new StubHttpServer(soapResponse, 0);
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void testEndpointCallbackSetsActionsAndFreshMessageIds() throws Exception {
+        String uri = "springws:" + server.getUrl("/endpoint") + "?soapAction=" + soapAction + "&wsAddressingAction=" + wsAddressingAction;
+        template.requestBody(uri, xmlRequestForGoogleStockQuote);
+        template.requestBody(uri, xmlRequestForGoogleStockQuote);
+
+        List<ReceivedRequest> requests = getReceivedRequests("/endpoint");
+        assertEquals(2, requests.size());
+        for (ReceivedRequest request : requests) {
+            assertEquals("\"" + soapAction + "\"", request.getHeader("SOAPAction"));
+            assertTrue(request.getBody(), request.getBody().contains(wsAddressingAction));
+        }
+        String firstMessageId = getMessageId(requests.get(0));
+        String secondMessageId = getMessageId(requests.get(1));
+        assertFalse(firstMessageId.equals(secondMessageId));
+    }
+
+    @Test
+    public void testHeadersOverrideEndpointActions() throws Exception {
+        String uri = "springws:" + server.getUrl("/override") + "?soapAction=" + soapAction + "&wsAddressingAction=" + wsAddressingAction;
+        template.requestBodyAndHeader(uri, xmlRequestForGoogleStockQuote, SpringWebserviceConstants.SPRING_WS_SOAP_ACTION, "http://www.webserviceX.NET/Other");
+        template.requestBody(uri, xmlRequestForGoogleStockQuote);
+
+        List<ReceivedRequest> requests = getReceivedRequests("/override");
+        assertEquals(2, requests.size());
+        assertEquals("\"http://www.webserviceX.NET/Other\"", requests.get(0).getHeader("SOAPAction"));
+        // the override doesn't leak into the shared endpoint callback
+        assertEquals("\"" + soapAction + "\"", requests.get(1).getHeader("SOAPAction"));
+        assertFalse(getMessageId(requests.get(0)).equals(getMessageId(requests.get(1))));
+    }
+
+    private List<ReceivedRequest> getReceivedRequests(String path) {
+        List<ReceivedRequest> requests = server.getReceivedRequests();
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            if (!requests.get(i).getRequestLine().startsWith("POST " + path + " ")) {
+                requests.remove(i);
+            }
+        }
+        return requests;
+    }
+
+    private String getMessageId(ReceivedRequest request) {
+        Matcher matcher = messageIdPattern.matcher(request.getBody());
+        assertTrue(request.getBody(), matcher.find());
+        return matcher.group(1);
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ProducerMessageCallbackTest-context.xml");
+    }
+}
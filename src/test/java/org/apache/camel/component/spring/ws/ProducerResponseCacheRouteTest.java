@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import java.util.Arrays;
+
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.converter.jaxp.BytesSource;
+import org.apache.camel.test.junit4.CamelSpringTestSupport;
+import org.junit.Test;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class ProducerResponseCacheRouteTest extends CamelSpringTestSupport {
+
+    private static final String xmlRequestForGoogleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final String xmlRequestForAppleStockQuote = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>AAPL</symbol></GetQuote>";
+
+    @Test
+    public void testRepeatedRequestIsServedFromCache() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:served");
+        mock.expectedMessageCount(1);
+
+        String first = template.requestBody("direct:stockQuoteWebservice", xmlRequestForGoogleStockQuote, String.class);
+        String second = template.requestBody("direct:stockQuoteWebservice", xmlRequestForGoogleStockQuote, String.class);
+
+        mock.assertIsSatisfied();
+        assertTrue(first.contains("Google Inc."));
+        assertEquals(first, second);
+        PayloadCache responseCache = (PayloadCache) applicationContext.getBean("responseCache");
+        assertEquals(0.5, responseCache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testDifferentRequestsAreSent() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:served");
+        mock.expectedMessageCount(2);
+
+        template.requestBody("direct:stockQuoteWebservice", xmlRequestForGoogleStockQuote);
+        template.requestBody("direct:stockQuoteWebservice", xmlRequestForAppleStockQuote);
+
+        mock.assertIsSatisfied();
+    }
+
+    @Test
+    public void testCachedResponseIsNotSharedWithExchanges() throws Exception {
+        String uri = "springws:http://localhost?webServiceTemplate=#webServiceTemplate&soapAction=http://www.stockquotes.edu/GetQuote&responseCache=#responseCache";
+
+        // overwrite the bytes of both the response that was cached and the one served from cache
+        for (int i = 0; i < 2; i++) {
+            BytesSource response = template.requestBody(uri, xmlRequestForGoogleStockQuote, BytesSource.class);
+            Arrays.fill(response.getData(), (byte) ' ');
+        }
+
+        String cached = context.getTypeConverter().convertTo(String.class, template.requestBody(uri, xmlRequestForGoogleStockQuote));
+        assertTrue(cached, cached.contains("Google Inc."));
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(
+                "org/apache/camel/component/spring/ws/ProducerResponseCacheRouteTest-context.xml");
+    }
+}
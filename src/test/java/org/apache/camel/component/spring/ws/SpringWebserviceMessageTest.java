@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+import javax.xml.soap.MessageFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.bean.XmlResourcePool;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.soap.SoapHeader;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+import org.springframework.xml.transform.StaxSource;
+import org.w3c.dom.Document;
+
+public class SpringWebserviceMessageTest {
+
+    private static final QName TOKEN = new QName("http://www.webserviceX.NET/", "Token");
+    private static final QName SECURITY = new QName("http://www.webserviceX.NET/", "Security");
+
+    private SoapMessage request;
+
+    @Before
+    public void setUp() throws Exception {
+        SaajSoapMessageFactory messageFactory = new SaajSoapMessageFactory(MessageFactory.newInstance());
+        messageFactory.afterPropertiesSet();
+        request = (SoapMessage) messageFactory.createWebServiceMessage();
+        SoapHeader soapHeader = request.getSoapHeader();
+        soapHeader.addHeaderElement(TOKEN).setText("secret");
+        soapHeader.addHeaderElement(SECURITY).setText("signature");
+    }
+
+    @Test
+    public void headersArePopulatedOnFirstAccess() {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request);
+        assertFalse(message.hasPopulatedHeaders());
+        assertEquals(2, message.getHeaders().size());
+        assertTrue(message.hasPopulatedHeaders());
+    }
+
+    @Test
+    public void headerFilterLimitsExposedHeaders() {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request, Collections.singleton(TOKEN));
+        assertEquals(1, message.getHeaders().size());
+        assertNull(message.getHeader(SECURITY.toString()));
+        assertTrue(message.getHeaders().containsKey(TOKEN.toString()));
+    }
+
+    @Test
+    public void wildcardHeaderFilterMatchesNamespace() {
+        request.getSoapHeader().addHeaderElement(new QName("http://acme.com/", "TraceId")).setText("42");
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request, Collections.singleton(new QName("http://www.webserviceX.NET/", "*")));
+        assertEquals(2, message.getHeaders().size());
+        assertTrue(message.getHeaders().containsKey(TOKEN.toString()));
+        assertTrue(message.getHeaders().containsKey(SECURITY.toString()));
+    }
+
+    @Test
+    public void streamingBodyExposesStaxSource() throws Exception {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(new StreamPayloadMessage("<GetQuote><symbol>GOOG</symbol></GetQuote>"));
+        message.setStreamingInputFactory(XMLInputFactory.newInstance());
+        XMLStreamReader streamReader = ((StaxSource) message.getBody()).getXMLStreamReader();
+        assertEquals(XMLStreamConstants.START_ELEMENT, streamReader.nextTag());
+        assertEquals("GetQuote", streamReader.getLocalName());
+    }
+
+    @Test
+    public void bodyIsPayloadSourceByDefault() {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(new StreamPayloadMessage("<GetQuote/>"));
+        assertTrue(message.getBody() instanceof StreamSource);
+    }
+
+    @Test
+    public void emptyHeaderFilterExposesNothing() {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request, Collections.<QName> emptySet());
+        assertTrue(message.getHeaders().isEmpty());
+    }
+
+    @Test
+    public void largeStreamPayloadIsSpooled() throws Exception {
+        StringBuilder payload = new StringBuilder("<GetQuotes>");
+        for (int i = 0; i < 10000; i++) {
+            payload.append("<symbol>GOOG</symbol>");
+        }
+        payload.append("</GetQuotes>");
+        SpringWebserviceMessage message = new SpringWebserviceMessage(new StreamPayloadMessage(payload.toString()));
+        message.setPayloadSpooler(new PayloadSpooler(1024, null, new PayloadSpooler.SpoolSpace(0), XmlResourcePool.getDefaultInstance()));
+
+        SpooledPayloadSource body = (SpooledPayloadSource) message.getBody();
+        assertFalse(body.isInMemory());
+        assertTrue(body.getSize() >= payload.length());
+        Document document = (Document) XmlResourcePool.getDefaultInstance().toDOMNode(body);
+        assertEquals(10000, document.getElementsByTagName("symbol").getLength());
+        message.releaseSpooledPayload();
+    }
+
+    @Test
+    public void domPayloadIsNotSpooled() throws Exception {
+        SpringWebserviceMessage message = new SpringWebserviceMessage(request);
+        message.setPayloadSpooler(new PayloadSpooler(0, null, new PayloadSpooler.SpoolSpace(0), XmlResourcePool.getDefaultInstance()));
+        assertFalse(message.getBody() instanceof SpooledPayloadSource);
+    }
+
+    /**
+     * Message exposing its payload as a stream, like non-DOM message
+     * factories do
+     */
+    private static final class StreamPayloadMessage implements WebServiceMessage {
+        private final String payload;
+
+        private StreamPayloadMessage(String payload) {
+            this.payload = payload;
+        }
+
+        public Source getPayloadSource() {
+            return new StreamSource(new StringReader(payload));
+        }
+
+        public Result getPayloadResult() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void writeTo(OutputStream outputStream) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
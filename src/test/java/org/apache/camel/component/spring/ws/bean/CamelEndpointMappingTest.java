@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.transform.TransformerFactory;
+
+import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.context.DefaultMessageContext;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.EndpointInvocationChain;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.soap.saaj.SaajSoapMessageFactory;
+import org.springframework.xml.transform.StringSource;
+
+public class CamelEndpointMappingTest {
+
+    private static final int ROUTE_COUNT = 10000;
+    private static final String SOAP_ACTION = "http://www.stockquotes.edu/GetQuote";
+    private static final String ROOT_QNAME = "{http://www.stockquotes.edu/}GetQuote";
+
+    private CamelEndpointMapping endpointMapping;
+    private SaajSoapMessageFactory messageFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        endpointMapping = new CamelEndpointMapping();
+        endpointMapping.afterPropertiesSet();
+        messageFactory = new SaajSoapMessageFactory(MessageFactory.newInstance());
+        messageFactory.afterPropertiesSet();
+    }
+
+    @Test
+    public void testKeysOfDifferentTypesDoNotCollide() throws Exception {
+        EndpointMappingKey soapActionKey = new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, "GetQuote", null);
+        EndpointMappingKey rootQNameKey = new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, "GetQuote", null);
+        assertFalse(soapActionKey.equals(rootQNameKey));
+
+        MessageEndpoint soapActionConsumer = new NoopMessageEndpoint();
+        MessageEndpoint rootQNameConsumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(soapActionKey, soapActionConsumer);
+        endpointMapping.addConsumer(rootQNameKey, rootQNameConsumer);
+
+        assertEquals(2, endpointMapping.getConsumerCount());
+        assertSame(soapActionConsumer, lookup("GetQuote", "<Other/>"));
+        assertSame(rootQNameConsumer, lookup(null, "<GetQuote/>"));
+    }
+
+    @Test
+    public void testXPathKeysWithDifferentExpressionsDoNotCollide() throws Exception {
+        EndpointMappingKey first = new EndpointMappingKey(EndpointMappingType.XPATHRESULT, "GOOG", "//symbol", null);
+        EndpointMappingKey second = new EndpointMappingKey(EndpointMappingType.XPATHRESULT, "GOOG", "//name", null);
+        assertFalse(first.equals(second));
+
+        MessageEndpoint symbolConsumer = new NoopMessageEndpoint();
+        MessageEndpoint nameConsumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(first, symbolConsumer);
+        endpointMapping.addConsumer(second, nameConsumer);
+
+        assertEquals(2, endpointMapping.getConsumerCount());
+        assertSame(symbolConsumer, lookup(null, "<GetQuote><symbol>GOOG</symbol></GetQuote>"));
+        assertSame(nameConsumer, lookup(null, "<GetQuote><name>GOOG</name></GetQuote>"));
+    }
+
+    @Test
+    public void testOverlappingMappingsArePrecededBySoapActionThenRootQNameThenXPath() throws Exception {
+        EndpointMappingKey soapActionKey = new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION, null);
+        EndpointMappingKey rootQNameKey = new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, ROOT_QNAME, null);
+        EndpointMappingKey xpathKey = new EndpointMappingKey(EndpointMappingType.XPATHRESULT, "GOOG", "//*[local-name()='symbol']", null);
+        MessageEndpoint soapActionConsumer = new NoopMessageEndpoint();
+        MessageEndpoint rootQNameConsumer = new NoopMessageEndpoint();
+        MessageEndpoint xpathConsumer = new NoopMessageEndpoint();
+        // registration order must not influence precedence
+        endpointMapping.addConsumer(xpathKey, xpathConsumer);
+        endpointMapping.addConsumer(rootQNameKey, rootQNameConsumer);
+        endpointMapping.addConsumer(soapActionKey, soapActionConsumer);
+
+        String payload = "<GetQuote xmlns=\"http://www.stockquotes.edu/\"><symbol>GOOG</symbol></GetQuote>";
+        assertSame(soapActionConsumer, lookup(SOAP_ACTION, payload));
+        assertSame(rootQNameConsumer, lookup(null, payload));
+
+        endpointMapping.removeConsumer(rootQNameKey);
+        assertSame(soapActionConsumer, lookup(SOAP_ACTION, payload));
+        assertSame(xpathConsumer, lookup(null, payload));
+
+        endpointMapping.removeConsumer(soapActionKey);
+        assertSame(xpathConsumer, lookup(SOAP_ACTION, payload));
+    }
+
+    @Test
+    public void testWildcardRootQName() throws Exception {
+        MessageEndpoint familyConsumer = new NoopMessageEndpoint();
+        MessageEndpoint exactConsumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, "{http://acme.com/orders/*}*", null), familyConsumer);
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, "{http://acme.com/orders/v1}Create", null), exactConsumer);
+
+        assertSame(exactConsumer, lookup(null, "<Create xmlns=\"http://acme.com/orders/v1\"/>"));
+        assertSame(familyConsumer, lookup(null, "<Delete xmlns=\"http://acme.com/orders/v1\"/>"));
+        assertSame(familyConsumer, lookup(null, "<Create xmlns=\"http://acme.com/orders/v2\"/>"));
+        assertNull(lookup(null, "<Create xmlns=\"http://acme.com/billing\"/>"));
+    }
+
+    @Test
+    public void testWildcardSoapActionPrecedesExactRootQName() throws Exception {
+        MessageEndpoint wildcardConsumer = new NoopMessageEndpoint();
+        MessageEndpoint rootQNameConsumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, ROOT_QNAME, null), rootQNameConsumer);
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, "http://www.stockquotes.edu/*", null), wildcardConsumer);
+
+        String payload = "<GetQuote xmlns=\"http://www.stockquotes.edu/\"/>";
+        assertSame(wildcardConsumer, lookup(SOAP_ACTION, payload));
+        assertSame(rootQNameConsumer, lookup("http://www.other.edu/GetQuote", payload));
+    }
+
+    @Test
+    public void testTenThousandRoutesPerMappingType() throws Exception {
+        MessageEndpoint[] soapActionConsumers = new MessageEndpoint[ROUTE_COUNT];
+        MessageEndpoint[] rootQNameConsumers = new MessageEndpoint[ROUTE_COUNT];
+        for (int i = 0; i < ROUTE_COUNT; i++) {
+            soapActionConsumers[i] = new NoopMessageEndpoint();
+            rootQNameConsumers[i] = new NoopMessageEndpoint();
+            endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION + i, null), soapActionConsumers[i]);
+            endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, ROOT_QNAME + i, null), rootQNameConsumers[i]);
+        }
+        assertEquals(2 * ROUTE_COUNT, endpointMapping.getConsumerCount());
+        assertEquals(2 * ROUTE_COUNT, endpointMapping.getRouteTableVersion());
+
+        for (int i = 0; i < ROUTE_COUNT; i += 97) {
+            assertSame(soapActionConsumers[i], lookup(SOAP_ACTION + i, "<Unmapped/>"));
+            assertSame(rootQNameConsumers[i], lookup(null, "<GetQuote" + i + " xmlns=\"http://www.stockquotes.edu/\"/>"));
+        }
+        assertNull(lookup(SOAP_ACTION + ROUTE_COUNT, "<Unmapped/>"));
+
+        for (int i = 0; i < ROUTE_COUNT; i++) {
+            endpointMapping.removeConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION + i, null));
+        }
+        assertEquals(ROUTE_COUNT, endpointMapping.getConsumerCount());
+        assertNull(lookup(SOAP_ACTION + 1, "<Unmapped/>"));
+        assertSame(rootQNameConsumers[1], lookup(SOAP_ACTION + 1, "<GetQuote1 xmlns=\"http://www.stockquotes.edu/\"/>"));
+    }
+
+    @Test
+    public void testRoutingCacheExtractsKeysInOrderOfPrecedence() throws Exception {
+        endpointMapping.setRoutingCacheSize(100);
+        endpointMapping.afterPropertiesSet();
+        MessageEndpoint soapActionConsumer = new NoopMessageEndpoint();
+        MessageEndpoint rootQNameConsumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION, null), soapActionConsumer);
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, ROOT_QNAME, null), rootQNameConsumer);
+        String payload = "<GetQuote xmlns=\"http://www.stockquotes.edu/\"/>";
+
+        // the SOAP action decides, the root QName isn't looked at
+        assertSame(soapActionConsumer, lookup(SOAP_ACTION, payload));
+        assertEquals(0, endpointMapping.getRoutingCacheHits());
+        assertEquals(1, endpointMapping.getRoutingCacheMisses());
+        assertSame(soapActionConsumer, lookup(SOAP_ACTION, payload));
+        assertEquals(1, endpointMapping.getRoutingCacheHits());
+        assertEquals(1, endpointMapping.getRoutingCacheMisses());
+
+        // an unmapped SOAP action falls through to the root QName
+        assertSame(rootQNameConsumer, lookup(null, payload));
+        assertEquals(1, endpointMapping.getRoutingCacheHits());
+        assertEquals(3, endpointMapping.getRoutingCacheMisses());
+        assertSame(rootQNameConsumer, lookup(null, payload));
+        assertEquals(3, endpointMapping.getRoutingCacheHits());
+        assertEquals(3, endpointMapping.getRoutingCacheMisses());
+    }
+
+    @Test
+    public void testRoutingCacheCachesUnmappedKeys() throws Exception {
+        endpointMapping.setRoutingCacheSize(100);
+        endpointMapping.afterPropertiesSet();
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION, null), new NoopMessageEndpoint());
+
+        assertNull(lookup("http://www.stockquotes.edu/Unmapped", "<Unmapped/>"));
+        assertNull(lookup("http://www.stockquotes.edu/Unmapped", "<Unmapped/>"));
+        assertEquals(1, endpointMapping.getRoutingCacheHits());
+        assertEquals(1, endpointMapping.getRoutingCacheMisses());
+    }
+
+    @Test
+    public void testRoutingCacheIsInvalidatedWhenConsumersChange() throws Exception {
+        endpointMapping.setRoutingCacheSize(100);
+        endpointMapping.afterPropertiesSet();
+        EndpointMappingKey key = new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, SOAP_ACTION, null);
+        MessageEndpoint consumer = new NoopMessageEndpoint();
+        endpointMapping.addConsumer(new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, "other", null), new NoopMessageEndpoint());
+
+        assertNull(lookup(SOAP_ACTION, "<GetQuote/>"));
+        endpointMapping.addConsumer(key, consumer);
+        assertSame(consumer, lookup(SOAP_ACTION, "<GetQuote/>"));
+        assertSame(consumer, lookup(SOAP_ACTION, "<GetQuote/>"));
+        endpointMapping.removeConsumer(key);
+        assertNull(lookup(SOAP_ACTION, "<GetQuote/>"));
+        assertEquals(1, endpointMapping.getRoutingCacheHits());
+        assertEquals(3, endpointMapping.getRoutingCacheMisses());
+    }
+
+    private MessageEndpoint lookup(String soapAction, String payload) throws Exception {
+        SoapMessage request = (SoapMessage) messageFactory.createWebServiceMessage();
+        if (soapAction != null) {
+            request.setSoapAction(soapAction);
+        }
+        TransformerFactory.newInstance().newTransformer().transform(new StringSource(payload), request.getPayloadResult());
+        MessageContext messageContext = new DefaultMessageContext(request, messageFactory);
+        EndpointInvocationChain chain = endpointMapping.getEndpoint(messageContext);
+        return chain != null ? (MessageEndpoint) chain.getEndpoint() : null;
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
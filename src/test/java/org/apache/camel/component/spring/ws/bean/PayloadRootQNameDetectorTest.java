@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.PayloadSpooler;
+import org.apache.camel.component.spring.ws.SpooledPayloadSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.xml.transform.StaxSource;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class PayloadRootQNameDetectorTest {
+
+    private static final String PAYLOAD = "<?xml version=\"1.0\"?><!-- quote --><GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+    private static final QName ROOT_QNAME = new QName("http://www.webserviceX.NET/", "GetQuote");
+
+    private XmlResourcePool xmlResourcePool;
+    private PayloadRootQNameDetector detector;
+
+    @Before
+    public void setUp() {
+        xmlResourcePool = new XmlResourcePool();
+        detector = new PayloadRootQNameDetector(xmlResourcePool);
+    }
+
+    @Test
+    public void testDOMSource() throws Exception {
+        Document document = (Document) xmlResourcePool.toDOMNode(new StreamSource(new StringReader(PAYLOAD)));
+        assertEquals(ROOT_QNAME, detector.getRootQName(new DOMSource(document)));
+        assertEquals(ROOT_QNAME, detector.getRootQName(new DOMSource(document.getDocumentElement())));
+    }
+
+    @Test
+    public void testStaxSourceIsNotAdvanced() throws Exception {
+        XMLStreamReader streamReader = xmlResourcePool.getXMLInputFactory().createXMLStreamReader(new StringReader(PAYLOAD));
+        streamReader.nextTag();
+
+        assertEquals(ROOT_QNAME, detector.getRootQName(new StaxSource(streamReader)));
+        assertEquals(XMLStreamConstants.START_ELEMENT, streamReader.getEventType());
+        assertEquals(ROOT_QNAME, streamReader.getName());
+    }
+
+    @Test
+    public void testSAXSourceIsNotConsumed() throws Exception {
+        Reader reader = new BufferedReader(new StringReader(PAYLOAD));
+        assertEquals(ROOT_QNAME, detector.getRootQName(new SAXSource(new InputSource(reader))));
+        assertEquals(PAYLOAD, read(reader));
+
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8")));
+        assertEquals(ROOT_QNAME, detector.getRootQName(new SAXSource(new InputSource(inputStream))));
+        assertEquals(PAYLOAD, new String(readBytes(inputStream), "UTF-8"));
+    }
+
+    @Test
+    public void testStreamSourceIsNotConsumed() throws Exception {
+        InputStream inputStream = new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8"));
+        assertEquals(ROOT_QNAME, detector.getRootQName(new StreamSource(inputStream)));
+        assertEquals(PAYLOAD, new String(readBytes(inputStream), "UTF-8"));
+
+        Reader reader = new StringReader(PAYLOAD);
+        assertEquals(ROOT_QNAME, detector.getRootQName(new StreamSource(reader)));
+        assertEquals(PAYLOAD, read(reader));
+    }
+
+    @Test
+    public void testStreamWithoutMarkSupportIsNotInspected() throws Exception {
+        InputStream inputStream = new FilterInputStream(new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8"))) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        assertNull(detector.getRootQName(new StreamSource(inputStream)));
+        assertEquals(PAYLOAD, new String(readBytes(inputStream), "UTF-8"));
+    }
+
+    @Test
+    public void testRootElementBeyondHeadOfStream() throws Exception {
+        StringBuilder payload = new StringBuilder("<!--");
+        for (int i = 0; i < PayloadRootQNameDetector.HEAD_SIZE; i++) {
+            payload.append(' ');
+        }
+        payload.append("--><GetQuote/>");
+        Reader reader = new StringReader(payload.toString());
+
+        assertNull(detector.getRootQName(new StreamSource(reader)));
+        assertEquals(payload.toString(), read(reader));
+    }
+
+    @Test
+    public void testSpooledPayloadSourceIsReadFromItsOwnStream() throws Exception {
+        PayloadSpooler spooler = new PayloadSpooler(1024, null, new PayloadSpooler.SpoolSpace(0), xmlResourcePool);
+        SpooledPayloadSource source = spooler.spool(new StreamSource(new StringReader(PAYLOAD)));
+        try {
+            InputStream inputStream = source.getInputStream();
+            assertEquals(ROOT_QNAME, detector.getRootQName(source));
+            assertEquals(ROOT_QNAME, detector.getRootQName(source));
+            // the detector left the stream of the source alone
+            assertEquals(source.getSize(), readBytes(inputStream).length);
+        } finally {
+            source.release();
+        }
+    }
+
+    @Test
+    public void testNullSource() throws Exception {
+        assertNull(detector.getRootQName(null));
+    }
+
+    private static String read(Reader reader) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, count);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] readBytes(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+public class RouteIndexTest {
+
+    // all of these keys share the same String.hashCode()
+    private static final String[] COLLIDING_KEYS = {"AaAa", "AaBB", "BBAa", "BBBB"};
+
+    @Test
+    public void testPutAndGet() {
+        MessageEndpoint first = new NoopMessageEndpoint();
+        MessageEndpoint second = new NoopMessageEndpoint();
+        RouteIndex index = RouteIndex.EMPTY.put("first", first).put("second", second);
+
+        assertEquals(2, index.size());
+        assertSame(first, index.get("first"));
+        assertSame(second, index.get("second"));
+        assertNull(index.get("third"));
+        assertNull(index.get(null));
+    }
+
+    @Test
+    public void testSnapshotsAreIsolated() {
+        MessageEndpoint first = new NoopMessageEndpoint();
+        MessageEndpoint replacement = new NoopMessageEndpoint();
+        RouteIndex original = RouteIndex.EMPTY.put("key", first);
+        RouteIndex replaced = original.put("key", replacement);
+        RouteIndex removed = original.remove("key");
+
+        assertSame(first, original.get("key"));
+        assertSame(replacement, replaced.get("key"));
+        assertEquals(1, replaced.size());
+        assertNull(removed.get("key"));
+        assertTrue(removed.isEmpty());
+        assertTrue(RouteIndex.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void testUnchangedIndexIsReturnedAsIs() {
+        MessageEndpoint endpoint = new NoopMessageEndpoint();
+        RouteIndex index = RouteIndex.EMPTY.put("key", endpoint);
+
+        assertSame(index, index.put("key", endpoint));
+        assertSame(index, index.remove("other"));
+    }
+
+    @Test
+    public void testCollidingHashesArePutInCollisionNode() {
+        for (String key : COLLIDING_KEYS) {
+            assertEquals(COLLIDING_KEYS[0].hashCode(), key.hashCode());
+        }
+        MessageEndpoint[] endpoints = new MessageEndpoint[COLLIDING_KEYS.length];
+        RouteIndex index = RouteIndex.EMPTY;
+        for (int i = 0; i < COLLIDING_KEYS.length; i++) {
+            endpoints[i] = new NoopMessageEndpoint();
+            index = index.put(COLLIDING_KEYS[i], endpoints[i]);
+        }
+        assertEquals(COLLIDING_KEYS.length, index.size());
+        for (int i = 0; i < COLLIDING_KEYS.length; i++) {
+            assertSame(endpoints[i], index.get(COLLIDING_KEYS[i]));
+        }
+
+        MessageEndpoint replacement = new NoopMessageEndpoint();
+        RouteIndex replaced = index.put(COLLIDING_KEYS[1], replacement);
+        assertSame(replacement, replaced.get(COLLIDING_KEYS[1]));
+        assertSame(endpoints[1], index.get(COLLIDING_KEYS[1]));
+        assertEquals(COLLIDING_KEYS.length, replaced.size());
+
+        RouteIndex removed = index.remove(COLLIDING_KEYS[2]);
+        assertNull(removed.get(COLLIDING_KEYS[2]));
+        assertSame(endpoints[3], removed.get(COLLIDING_KEYS[3]));
+        assertSame(endpoints[2], index.get(COLLIDING_KEYS[2]));
+        assertEquals(COLLIDING_KEYS.length - 1, removed.size());
+
+        for (String key : COLLIDING_KEYS) {
+            index = index.remove(key);
+        }
+        assertTrue(index.isEmpty());
+        assertNull(index.get(COLLIDING_KEYS[0]));
+    }
+
+    @Test
+    public void testManyKeys() {
+        RouteIndex index = RouteIndex.EMPTY;
+        MessageEndpoint[] endpoints = new MessageEndpoint[5000];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new NoopMessageEndpoint();
+            index = index.put("key" + i, endpoints[i]);
+        }
+        assertEquals(endpoints.length, index.size());
+        for (int i = 0; i < endpoints.length; i++) {
+            assertSame(endpoints[i], index.get("key" + i));
+        }
+        for (int i = 0; i < endpoints.length; i += 2) {
+            index = index.remove("key" + i);
+        }
+        assertEquals(endpoints.length / 2, index.size());
+        for (int i = 0; i < endpoints.length; i++) {
+            assertEquals(i % 2 == 1, index.get("key" + i) != null);
+        }
+    }
+
+    @Test
+    public void testExactKeysTakePriorityOverPatterns() {
+        MessageEndpoint pattern = new NoopMessageEndpoint();
+        MessageEndpoint exact = new NoopMessageEndpoint();
+        RouteIndex index = RouteIndex.EMPTY.put("http://acme.com/*", pattern).put("http://acme.com/orders", exact);
+
+        assertSame(exact, index.get("http://acme.com/orders"));
+        assertSame(pattern, index.get("http://acme.com/billing"));
+        assertTrue(index.containsKey("http://acme.com/*"));
+        assertFalse(index.containsKey("http://acme.com/billing"));
+        assertEquals(2, index.size());
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
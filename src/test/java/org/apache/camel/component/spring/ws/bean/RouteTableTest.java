@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.junit.Test;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+public class RouteTableTest {
+
+    private static final EndpointMappingKey SOAP_ACTION_KEY = new EndpointMappingKey(EndpointMappingType.SOAP_ACTION, "GetQuote", null);
+    private static final EndpointMappingKey ROOT_QNAME_KEY = new EndpointMappingKey(EndpointMappingType.ROOT_QNAME, "{http://www.stockquotes.edu/}GetQuote", null);
+
+    @Test
+    public void testEveryChangeBumpsTheVersion() {
+        RouteTable first = RouteTable.EMPTY.with(SOAP_ACTION_KEY, new NoopMessageEndpoint());
+        RouteTable second = first.with(ROOT_QNAME_KEY, new NoopMessageEndpoint());
+        RouteTable third = second.without(SOAP_ACTION_KEY);
+
+        assertEquals(0, RouteTable.EMPTY.getVersion());
+        assertEquals(1, first.getVersion());
+        assertEquals(2, second.getVersion());
+        assertEquals(3, third.getVersion());
+    }
+
+    @Test
+    public void testRemovingAnUnknownKeyReturnsTheSameTable() {
+        RouteTable table = RouteTable.EMPTY.with(SOAP_ACTION_KEY, new NoopMessageEndpoint());
+
+        assertSame(table, table.without(ROOT_QNAME_KEY));
+        assertSame(RouteTable.EMPTY, RouteTable.EMPTY.without(SOAP_ACTION_KEY));
+    }
+
+    @Test
+    public void testSnapshotsAreIsolated() {
+        RouteTable empty = RouteTable.EMPTY;
+        RouteTable withSoapAction = empty.with(SOAP_ACTION_KEY, new NoopMessageEndpoint());
+        RouteTable withBoth = withSoapAction.with(ROOT_QNAME_KEY, new NoopMessageEndpoint());
+        RouteTable withRootQName = withBoth.without(SOAP_ACTION_KEY);
+
+        assertEquals(0, empty.size());
+        assertFalse(empty.hasSoapActionMappings());
+
+        assertEquals(1, withSoapAction.size());
+        assertTrue(withSoapAction.isSoapActionMapped("GetQuote"));
+        assertFalse(withSoapAction.hasRootQNameMappings());
+
+        assertEquals(2, withBoth.size());
+        assertTrue(withBoth.isSoapActionMapped("GetQuote"));
+        assertTrue(withBoth.hasRootQNameMappings());
+
+        assertEquals(1, withRootQName.size());
+        assertFalse(withRootQName.isSoapActionMapped("GetQuote"));
+        assertTrue(withRootQName.hasRootQNameMappings());
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.junit.Test;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+public class RoutingDecisionCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        RoutingDecisionCache cache = new RoutingDecisionCache(10, 0);
+        MessageEndpoint endpoint = new NoopMessageEndpoint();
+        RoutingDecisionCache.Key key = new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "GetQuote");
+
+        assertNull(cache.get(key));
+        cache.put(key, endpoint, 0);
+        assertSame(endpoint, cache.get(new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "GetQuote")).getEndpoint());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testKeysOfDifferentTypesDoNotCollide() {
+        RoutingDecisionCache cache = new RoutingDecisionCache(10, 0);
+        cache.put(new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "GetQuote"), new NoopMessageEndpoint(), 0);
+
+        assertNull(cache.get(new RoutingDecisionCache.Key(EndpointMappingType.ROOT_QNAME, "GetQuote")));
+        assertNull(cache.get(new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, null)));
+    }
+
+    @Test
+    public void testNegativeDecisionsAreCached() {
+        RoutingDecisionCache cache = new RoutingDecisionCache(10, 0);
+        RoutingDecisionCache.Key key = new RoutingDecisionCache.Key(EndpointMappingType.URI, null);
+        cache.put(key, null, 0);
+
+        RoutingDecisionCache.Decision decision = cache.get(key);
+        assertNotNull(decision);
+        assertNull(decision.getEndpoint());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDecisionIsEvicted() {
+        RoutingDecisionCache cache = new RoutingDecisionCache(2, 0);
+        RoutingDecisionCache.Key first = new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "first");
+        RoutingDecisionCache.Key second = new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "second");
+        RoutingDecisionCache.Key third = new RoutingDecisionCache.Key(EndpointMappingType.SOAP_ACTION, "third");
+        cache.put(first, null, 0);
+        cache.put(second, null, 0);
+        cache.get(first);
+        cache.put(third, null, 0);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+    }
+
+    @Test
+    public void testInvalidation() {
+        RoutingDecisionCache cache = new RoutingDecisionCache(10, 0);
+        RoutingDecisionCache.Key key = new RoutingDecisionCache.Key(EndpointMappingType.ROOT_QNAME, "{urn:quotes}GetQuote");
+        cache.put(key, new NoopMessageEndpoint(), 0);
+        cache.invalidate(1);
+        assertEquals(0, cache.size());
+
+        // decisions made against the previous route table are discarded
+        cache.put(key, new NoopMessageEndpoint(), 0);
+        assertNull(cache.get(key));
+        cache.put(key, null, 1);
+        assertNotNull(cache.get(key));
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
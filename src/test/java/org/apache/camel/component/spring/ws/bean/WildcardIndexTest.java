@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+
+public class WildcardIndexTest {
+
+    @Test
+    public void testWildcardMatchesAnySequence() {
+        MessageEndpoint endpoint = new NoopMessageEndpoint();
+        WildcardIndex index = WildcardIndex.EMPTY.put("{http://acme.com/orders/*}*", endpoint);
+
+        assertSame(endpoint, index.get("{http://acme.com/orders/v1}Create"));
+        assertSame(endpoint, index.get("{http://acme.com/orders/}"));
+        assertNull(index.get("{http://acme.com/billing}Create"));
+        assertNull(index.get("{http://acme.com/orders/v1"));
+        assertNull(index.get(null));
+    }
+
+    @Test
+    public void testMostSpecificPatternWins() {
+        MessageEndpoint any = new NoopMessageEndpoint();
+        MessageEndpoint orders = new NoopMessageEndpoint();
+        MessageEndpoint create = new NoopMessageEndpoint();
+        MessageEndpoint suffix = new NoopMessageEndpoint();
+        WildcardIndex index = WildcardIndex.EMPTY.put("*", any).put("{http://acme.com/orders/*}*", orders)
+                .put("{http://acme.com/orders/*}Create", create).put("*}Create", suffix);
+
+        assertSame(create, index.get("{http://acme.com/orders/v1}Create"));
+        assertSame(orders, index.get("{http://acme.com/orders/v1}Delete"));
+        assertSame(suffix, index.get("{http://acme.com/billing}Create"));
+        assertSame(any, index.get("GetQuote"));
+    }
+
+    @Test
+    public void testEquallySpecificPatternsPreferTheLongestLiteralPrefix() {
+        MessageEndpoint prefix = new NoopMessageEndpoint();
+        MessageEndpoint suffix = new NoopMessageEndpoint();
+        WildcardIndex index = WildcardIndex.EMPTY.put("*ab", suffix).put("ab*", prefix);
+
+        assertSame(prefix, index.get("abab"));
+        assertSame(suffix, index.get("xab"));
+    }
+
+    @Test
+    public void testConsecutiveWildcardsAndRemoval() {
+        MessageEndpoint endpoint = new NoopMessageEndpoint();
+        WildcardIndex index = WildcardIndex.EMPTY.put("a**b", endpoint);
+
+        assertSame(endpoint, index.get("ab"));
+        assertSame(endpoint, index.get("axxb"));
+        assertSame(WildcardIndex.EMPTY, index.remove("a**b"));
+        assertSame(index, index.remove("a*b"));
+    }
+
+    @Test
+    public void testManyWildcardsDoNotBacktrack() {
+        MessageEndpoint endpoint = new NoopMessageEndpoint();
+        WildcardIndex index = WildcardIndex.EMPTY.put("*a*a*a*a*a*a*a*a*a*a*a*a*b", endpoint);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            key.append('a');
+        }
+
+        // backtracking would try every way of splitting the key over the wildcards
+        long start = System.currentTimeMillis();
+        assertNull(index.get(key.toString()));
+        assertSame(endpoint, index.get(key.append('b').toString()));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, index.size());
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.xml.xpath.XPathExpression;
+import org.springframework.xml.xpath.XPathParseException;
+import org.w3c.dom.Node;
+
+public class XPathExpressionCacheTest {
+
+    private XPathExpressionCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new XPathExpressionCache();
+    }
+
+    @Test
+    public void testEqualExpressionsAreShared() {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        namespaces.put("q", "urn:quotes");
+        namespaces.put("p", "urn:prices");
+        Map<String, String> sameNamespaces = new TreeMap<String, String>(namespaces);
+
+        XPathExpression expression = cache.getExpression("//q:symbol", namespaces);
+        assertSame(expression, cache.getExpression("//q:symbol", sameNamespaces));
+        assertSame(cache.getExpression("//symbol", null), cache.getExpression("//symbol", Collections.<String, String> emptyMap()));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testDifferentNamespacesAreNotShared() {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        namespaces.put("a", "x");
+        namespaces.put("b", "y");
+        // renders as {a=x, b=y} too
+        Map<String, String> lookalike = Collections.singletonMap("a", "x, b=y");
+
+        assertNotSame(cache.getExpression("//a:symbol", namespaces), cache.getExpression("//a:symbol", lookalike));
+        assertNotSame(cache.getExpression("//a:symbol", namespaces), cache.getExpression("//a:symbol", null));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidExpressionFailsFast() {
+        try {
+            cache.getExpression("//symbol[", null);
+            fail("Expected XPathParseException");
+        } catch (XPathParseException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSharedExpressionIsEvaluatedConcurrently() throws Exception {
+        final XPathExpression expression = cache.getExpression("/q:GetQuote/q:symbol", Collections.singletonMap("q", "urn:quotes"));
+        final XmlResourcePool xmlResourcePool = new XmlResourcePool();
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < threadCount; i++) {
+                final String symbol = "SYM" + i;
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        Node payload = xmlResourcePool.toDOMNode(new StreamSource(new StringReader(
+                                "<q:GetQuote xmlns:q=\"urn:quotes\"><q:symbol>" + symbol + "</q:symbol></q:GetQuote>")));
+                        start.await();
+                        String result = null;
+                        for (int j = 0; j < 500; j++) {
+                            result = expression.evaluateAsString(payload);
+                            if (!symbol.equals(result)) {
+                                return result;
+                            }
+                        }
+                        return result;
+                    }
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < threadCount; i++) {
+                assertEquals("SYM" + i, results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
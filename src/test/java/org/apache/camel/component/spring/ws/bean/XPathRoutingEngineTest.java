@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.component.spring.ws.type.EndpointMappingKey;
+import org.apache.camel.component.spring.ws.type.EndpointMappingType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ws.WebServiceMessage;
+import org.springframework.ws.context.DefaultMessageContext;
+import org.springframework.ws.context.MessageContext;
+import org.springframework.ws.server.endpoint.MessageEndpoint;
+import org.springframework.xml.transform.StaxSource;
+import org.springframework.xml.xpath.XPathExpressionFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+public class XPathRoutingEngineTest {
+
+    private static final String PAYLOAD = "<GetQuote><symbol>GOOG</symbol><symbol>MSFT</symbol><nested><symbol>IBM</symbol></nested></GetQuote>";
+    private static final String QUALIFIED_PAYLOAD = "<q:GetQuote xmlns:q=\"urn:quotes\"><q:symbol>GOOG</q:symbol><symbol>MSFT</symbol></q:GetQuote>";
+    private static final Map<String, String> NAMESPACES = Collections.singletonMap("q", "urn:quotes");
+
+    private XmlResourcePool xmlResourcePool;
+    private PayloadRootQNameDetector rootQNameDetector;
+
+    @Before
+    public void setUp() {
+        xmlResourcePool = new XmlResourcePool();
+        rootQNameDetector = new PayloadRootQNameDetector(xmlResourcePool);
+    }
+
+    @Test
+    public void testChildAndDescendantSteps() throws Exception {
+        assertEquals("GOOG", evaluate("/GetQuote/symbol", null, PAYLOAD));
+        assertEquals("GOOG", evaluate("//symbol", null, PAYLOAD));
+        assertEquals("IBM", evaluate("/GetQuote/nested/symbol", null, PAYLOAD));
+        assertEquals("IBM", evaluate("//nested//symbol", null, PAYLOAD));
+        assertEquals("IBM", evaluate("/*/*/symbol", null, PAYLOAD));
+        assertEquals("", evaluate("/symbol", null, PAYLOAD));
+        assertEquals("", evaluate("/GetQuote/price", null, PAYLOAD));
+    }
+
+    @Test
+    public void testNamespaces() throws Exception {
+        assertEquals("GOOG", evaluate("/q:GetQuote/q:symbol", NAMESPACES, QUALIFIED_PAYLOAD));
+        assertEquals("GOOG", evaluate("/q:*/q:*", NAMESPACES, QUALIFIED_PAYLOAD));
+        assertEquals("MSFT", evaluate("/q:GetQuote/symbol", NAMESPACES, QUALIFIED_PAYLOAD));
+        assertEquals("", evaluate("/GetQuote/symbol", null, QUALIFIED_PAYLOAD));
+        // a prefix without binding can't be streamed
+        assertNull(XPathRoutingEngine.Path.compile("/x:GetQuote", NAMESPACES));
+    }
+
+    @Test
+    public void testOnlyPlainLocationPathsAreStreamed() {
+        assertNotNull(XPathRoutingEngine.Path.compile("/GetQuote/symbol", null));
+        assertNull(XPathRoutingEngine.Path.compile("/GetQuote/symbol[1]", null));
+        assertNull(XPathRoutingEngine.Path.compile("GetQuote/symbol", null));
+        assertNull(XPathRoutingEngine.Path.compile("//@symbol", null));
+        assertNull(XPathRoutingEngine.Path.compile("count(//symbol)", null));
+    }
+
+    @Test
+    public void testMaxSteps() throws Exception {
+        StringBuilder path = new StringBuilder();
+        StringBuilder open = new StringBuilder();
+        StringBuilder close = new StringBuilder();
+        for (int i = 0; i < 62; i++) {
+            path.append("/e");
+            open.append("<e>");
+            close.append("</e>");
+        }
+        String payload = open + "deep" + close;
+        assertNotNull(XPathRoutingEngine.Path.compile(path.toString(), null));
+        assertEquals("deep", evaluate(path.toString(), null, payload));
+
+        // one step too many to track in a bit set, left to the XPath engine
+        assertNull(XPathRoutingEngine.Path.compile(path + "/e", null));
+        assertEquals("", evaluate(path + "/e", null, payload));
+    }
+
+    @Test
+    public void testStreamingAgreesWithXPathEngine() throws Exception {
+        String[] expressions = {"/GetQuote/symbol", "//symbol", "/GetQuote", "/*/symbol", "//nested/symbol", "/symbol", "/q:GetQuote/q:symbol", "//q:*", "/q:GetQuote/symbol"};
+        String[] payloads = {PAYLOAD, QUALIFIED_PAYLOAD};
+        for (String expression : expressions) {
+            assertNotNull(expression, XPathRoutingEngine.Path.compile(expression, NAMESPACES));
+            for (String payload : payloads) {
+                // a predicate makes the same expression go through the XPath engine
+                String expected = evaluate(expression + "[1]", NAMESPACES, payload);
+                assertEquals(expression, expected, evaluate(expression, NAMESPACES, payload));
+                assertEquals(expression, expected, evaluate(expression, NAMESPACES, new StreamSource(new StringReader(payload))));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingAndXPathRoutesInOneEngineAgree() throws Exception {
+        Map<EndpointMappingKey, MessageEndpoint> endpoints = new LinkedHashMap<EndpointMappingKey, MessageEndpoint>();
+        endpoints.put(key("/GetQuote/symbol", null), new NoopMessageEndpoint());
+        endpoints.put(key("/GetQuote/symbol[1]", null), new NoopMessageEndpoint());
+        XPathRoutingEngine engine = new XPathRoutingEngine(endpoints);
+
+        String[] results = engine.evaluate(createContext(bodyOfEnvelope(PAYLOAD)));
+        assertEquals("GOOG", results[0]);
+        assertEquals("GOOG", results[1]);
+    }
+
+    @Test
+    public void testStreamPayloadsAreStreamedWithoutConsumingThem() throws Exception {
+        StringReader reader = new StringReader(PAYLOAD);
+        assertEquals("IBM", evaluate("//nested/symbol", null, new StreamSource(reader)));
+        assertEquals(PAYLOAD, read(reader));
+
+        ByteArrayInputStream in = new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8"));
+        assertEquals("IBM", evaluate("//nested/symbol", null, new StreamSource(in)));
+        assertEquals(PAYLOAD, read(new InputStreamReader(in, "UTF-8")));
+
+        reader = new StringReader(PAYLOAD);
+        assertEquals("IBM", evaluate("//nested/symbol", null, new SAXSource(new InputSource(reader))));
+        assertEquals(PAYLOAD, read(reader));
+
+        XMLStreamReader streamReader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(PAYLOAD));
+        assertEquals("IBM", evaluate("//nested/symbol", null, new StaxSource(streamReader)));
+    }
+
+    @Test
+    public void testPayloadBeyondStreamedHeadIsEvaluatedAsDom() throws Exception {
+        StringBuilder payload = new StringBuilder("<GetQuote>");
+        while (payload.length() < XPathRoutingEngine.STREAM_HEAD_SIZE) {
+            payload.append("<padding>0123456789</padding>");
+        }
+        payload.append("<symbol>GOOG</symbol></GetQuote>");
+        StringReader reader = new StringReader(payload.toString());
+        assertEquals("GOOG", evaluate("//symbol", null, new StreamSource(reader)));
+        assertEquals("0123456789", evaluate("//padding", null, new StreamSource(new StringReader(payload.toString()))));
+    }
+
+    @Test
+    public void testStreamWithoutMarkSupportIsEvaluatedAsDom() throws Exception {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8"))) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        assertEquals("IBM", evaluate("//nested/symbol", null, new StreamSource(in)));
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            content.append(buffer, 0, count);
+        }
+        return content.toString();
+    }
+
+    private String evaluate(String expression, Map<String, String> namespaces, String payload) throws Exception {
+        // shaped like a SAAJ payload, nested in the body of an envelope
+        return evaluate(expression, namespaces, bodyOfEnvelope(payload));
+    }
+
+    private String evaluate(String expression, Map<String, String> namespaces, Source payload) throws Exception {
+        Map<EndpointMappingKey, MessageEndpoint> endpoints = new LinkedHashMap<EndpointMappingKey, MessageEndpoint>();
+        endpoints.put(key(expression, namespaces), new NoopMessageEndpoint());
+        return new XPathRoutingEngine(endpoints).evaluate(createContext(payload))[0];
+    }
+
+    private EndpointMappingKey key(String expression, Map<String, String> namespaces) {
+        EndpointMappingKey key = new EndpointMappingKey(EndpointMappingType.XPATHRESULT, "GOOG", expression, XPathExpressionFactory.createXPathExpression(expression, namespaces));
+        key.setNamespaces(namespaces);
+        return key;
+    }
+
+    private EndpointMappingContext createContext(Source payload) {
+        MessageContext messageContext = new DefaultMessageContext(new PayloadMessage(payload), null);
+        return new EndpointMappingContext(messageContext, null, rootQNameDetector, xmlResourcePool);
+    }
+
+    private Source bodyOfEnvelope(String payload) throws Exception {
+        String envelope = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>" + payload + "</soap:Body></soap:Envelope>";
+        Document document = (Document) xmlResourcePool.toDOMNode(new StreamSource(new StringReader(envelope)));
+        Node body = document.getDocumentElement().getFirstChild();
+        return new DOMSource(body.getFirstChild());
+    }
+
+    /**
+     * Request exposing a fixed payload source
+     */
+    private static class PayloadMessage implements WebServiceMessage {
+        private final Source payload;
+
+        PayloadMessage(Source payload) {
+            this.payload = payload;
+        }
+
+        public Source getPayloadSource() {
+            return payload;
+        }
+
+        public Result getPayloadResult() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void writeTo(OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class NoopMessageEndpoint implements MessageEndpoint {
+        public void invoke(MessageContext messageContext) throws Exception {
+        }
+    }
+}
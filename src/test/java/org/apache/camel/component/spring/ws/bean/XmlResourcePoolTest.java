@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.bean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class XmlResourcePoolTest {
+
+    private static final String PAYLOAD = "<GetQuote xmlns=\"http://www.webserviceX.NET/\"><symbol>GOOG</symbol></GetQuote>";
+
+    private XmlResourcePool pool;
+
+    @Before
+    public void setUp() {
+        pool = new XmlResourcePool();
+    }
+
+    @Test
+    public void testTransformerIsReusedByTheSameThread() throws Exception {
+        Transformer transformer = pool.acquireTransformer();
+        pool.releaseTransformer(transformer);
+        assertSame(transformer, pool.acquireTransformer());
+    }
+
+    @Test
+    public void testNestedUseGetsAFreshTransformer() throws Exception {
+        Transformer outer = pool.acquireTransformer();
+        Transformer inner = pool.acquireTransformer();
+        assertNotSame(outer, inner);
+        pool.releaseTransformer(inner);
+        pool.releaseTransformer(outer);
+        assertSame(outer, pool.acquireTransformer());
+    }
+
+    @Test
+    public void testOtherThreadsGetTheirOwnTransformer() throws Exception {
+        Transformer transformer = pool.acquireTransformer();
+        pool.releaseTransformer(transformer);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Transformer other = executor.submit(new Callable<Transformer>() {
+                public Transformer call() throws Exception {
+                    Transformer transformer = pool.acquireTransformer();
+                    pool.releaseTransformer(transformer);
+                    return transformer;
+                }
+            }).get();
+            assertNotSame(transformer, other);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTransformerIsResetBetweenUses() throws Exception {
+        Transformer transformer = pool.acquireTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setParameter("symbol", "GOOG");
+        pool.releaseTransformer(transformer);
+
+        Transformer reused = pool.acquireTransformer();
+        assertSame(transformer, reused);
+        assertNull(reused.getParameter("symbol"));
+        pool.releaseTransformer(reused);
+
+        StringWriter writer = new StringWriter();
+        pool.transform(new StreamSource(new StringReader(PAYLOAD)), new StreamResult(writer));
+        assertTrue(writer.toString().startsWith("<?xml"));
+    }
+
+    @Test
+    public void testDocumentBuilderIsReusedAndStaysNamespaceAware() throws Exception {
+        DocumentBuilder documentBuilder = pool.acquireDocumentBuilder();
+        pool.releaseDocumentBuilder(documentBuilder);
+        DocumentBuilder reused = pool.acquireDocumentBuilder();
+        assertSame(documentBuilder, reused);
+        assertTrue(reused.isNamespaceAware());
+        pool.releaseDocumentBuilder(reused);
+
+        Node first = pool.toDOMNode(new StreamSource(new StringReader(PAYLOAD)));
+        Node second = pool.toDOMNode(new StreamSource(new StringReader("<Other/>")));
+        assertEquals("http://www.webserviceX.NET/", ((Document) first).getDocumentElement().getNamespaceURI());
+        assertEquals("Other", ((Document) second).getDocumentElement().getLocalName());
+    }
+
+    @Test
+    public void testXMLReaderIsReusedWithoutKeepingTheHandler() throws Exception {
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+        pool.parse(null, new InputSource(new StringReader(PAYLOAD)), first);
+        pool.parse(null, new InputSource(new StringReader("<Other/>")), second);
+
+        assertEquals(2, first.elements.size());
+        assertEquals(1, second.elements.size());
+        assertEquals("Other", second.elements.get(0));
+
+        XMLReader xmlReader = pool.acquireXMLReader();
+        assertNotSame(first, xmlReader.getContentHandler());
+        assertNotSame(second, xmlReader.getContentHandler());
+        pool.releaseXMLReader(xmlReader);
+        assertSame(xmlReader, pool.acquireXMLReader());
+    }
+
+    @Test
+    public void testStreamSourceIsReadOnce() throws Exception {
+        final int[] calls = new int[1];
+        StreamSource source = new StreamSource(new StringReader(PAYLOAD)) {
+            @Override
+            public InputStream getInputStream() {
+                calls[0]++;
+                return super.getInputStream();
+            }
+        };
+        assertTrue(XmlResourcePool.toInputSource(source).getCharacterStream() != null);
+        assertEquals(1, calls[0]);
+    }
+
+    private static class RecordingHandler extends DefaultHandler {
+        private final List<String> elements = new ArrayList<String>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            elements.add(localName);
+        }
+    }
+}
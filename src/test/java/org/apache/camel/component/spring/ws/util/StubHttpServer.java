@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.spring.ws.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server on a free port that answers every request with the
+ * same response after a delay. Connections are kept alive between requests
+ * unless the client asks to close them. Received requests are recorded.
+ */
+public class StubHttpServer {
+
+    private final byte[] response;
+    private final long delay;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Set<Socket> sockets = new HashSet<Socket>();
+    private final List<ReceivedRequest> receivedRequests = new ArrayList<ReceivedRequest>();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    public StubHttpServer(String response, long delay) throws IOException {
+        this.response = response.getBytes("UTF-8");
+        this.delay = delay;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0);
+        executor = Executors.newCachedThreadPool();
+        executor.execute(new Runnable() {
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        List<Socket> open;
+        synchronized (sockets) {
+            open = new ArrayList<Socket>(sockets);
+        }
+        for (Socket socket : open) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the URL of the given path on this server, addressed by the
+     *         given host name
+     */
+    public String getUrl(String host, String path) {
+        return "http://" + host + ":" + getPort() + path;
+    }
+
+    public String getUrl(String path) {
+        return getUrl("localhost", path);
+    }
+
+    /**
+     * @return the number of requests answered
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the requests received so far, in order of arrival
+     */
+    public List<ReceivedRequest> getReceivedRequests() {
+        synchronized (receivedRequests) {
+            return new ArrayList<ReceivedRequest>(receivedRequests);
+        }
+    }
+
+    /**
+     * @return the number of connections accepted
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            connections.incrementAndGet();
+            synchronized (sockets) {
+                sockets.add(socket);
+            }
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (SocketException e) {
+                        // closed by either side
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        synchronized (sockets) {
+                            sockets.remove(socket);
+                        }
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            if (requestLine.length() == 0) {
+                continue;
+            }
+            Map<String, String> headers = new HashMap<String, String>();
+            String header;
+            while ((header = readLine(in)) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                headers.put(header.substring(0, colon).trim().toLowerCase(), header.substring(colon + 1).trim());
+            }
+            String transferEncoding = headers.get("transfer-encoding");
+            String contentLength = headers.get("content-length");
+            byte[] body;
+            if (transferEncoding != null && transferEncoding.toLowerCase().indexOf("chunked") != -1) {
+                body = readChunkedBody(in);
+            } else {
+                body = read(in, contentLength != null ? Integer.parseInt(contentLength) : 0);
+            }
+            synchronized (receivedRequests) {
+                receivedRequests.add(new ReceivedRequest(requestLine, headers, new String(body, "UTF-8")));
+            }
+            boolean close = "close".equalsIgnoreCase(headers.get("connection"));
+
+            Thread.sleep(delay);
+            requests.incrementAndGet();
+            String responseHeaders = "HTTP/1.1 200 OK\r\n" + "Content-Type: text/xml; charset=UTF-8\r\n" + "Content-Length: " + response.length + "\r\n"
+                                     + (close ? "Connection: close\r\n" : "") + "\r\n";
+            out.write(responseHeaders.getBytes("ISO-8859-1"));
+            out.write(response);
+            out.flush();
+            if (close) {
+                return;
+            }
+        }
+    }
+
+    private static byte[] readChunkedBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            int semicolon = sizeLine.indexOf(';');
+            int size = Integer.parseInt((semicolon != -1 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+            if (size == 0) {
+                // trailers
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    // ignore
+                }
+                return body.toByteArray();
+            }
+            body.write(read(in, size));
+            readLine(in);
+        }
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(data, offset, length - offset);
+            if (n == -1) {
+                throw new IOException("Unexpected end of request body");
+            }
+            offset += n;
+        }
+        return data;
+    }
+
+    /**
+     * @return the line without its terminator, or <code>null</code> at the
+     *         end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    /**
+     * A request as received by the server
+     */
+    public static final class ReceivedRequest {
+        private final String requestLine;
+        private final Map<String, String> headers;
+        private final String body;
+
+        private ReceivedRequest(String requestLine, Map<String, String> headers, String body) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getRequestLine() {
+            return requestLine;
+        }
+
+        /**
+         * @return the value of the header with the given name, regardless of
+         *         case, or <code>null</code> if there's none
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+}